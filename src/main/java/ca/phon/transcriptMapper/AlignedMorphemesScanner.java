@@ -24,9 +24,16 @@ import ca.phon.syllabifier.SyllabifierLibrary;
 import ca.phon.util.*;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 public class AlignedMorphemesScanner {
 
+	private final static String ORTHOGRAPHY_TIER = SystemTierType.Orthography.getName();
+
+	private final static String IPA_TARGET_TIER = SystemTierType.IPATarget.getName();
+
+	private final static String IPA_ACTUAL_TIER = SystemTierType.IPAActual.getName();
+
 	private final AlignedTypesDatabase db;
 
 	private final LanguageEntry lang;
@@ -49,24 +56,53 @@ public class AlignedMorphemesScanner {
 	 */
 	private boolean checkForEmptyAlignment(Map<String, String> alignedTypes) {
 		int filledTiers = 0;
-		for(String tierName:alignedTypes.keySet()) {
-			String val = alignedTypes.get(tierName);
-			if(val != null && val.trim().length() > 0 && !"*".equals(val)) {
+		for(String val:alignedTypes.values()) {
+			if(val != null && hasContent(val) && !"*".equals(val)) {
 				++filledTiers;
 			}
 		}
 		return (filledTiers < 2);
 	}
 
+	/**
+	 * Same as {@code str.trim().length() > 0} without creating a new string
+	 */
+	private static boolean hasContent(String str) {
+		for(int i = 0; i < str.length(); i++) {
+			if(str.charAt(i) > ' ') return true;
+		}
+		return false;
+	}
+
 	public void scanSession(UUID srcProjectId, UUID projectId, Session session) {
-		final String sessionLanguages = session.getLanguage();
-		LanguageEntry primaryLang = SyllabifierLibrary.getInstance().defaultSyllabifierLanguage().getPrimaryLanguage();
-		if(sessionLanguages != null && sessionLanguages.length() > 0) {
-			String[] langIds = sessionLanguages.split(",");
-			if (langIds.length > 0) {
-				primaryLang = LanguageParser.getInstance().getEntryById(langIds[0]);
-			}
+		try(final AlignedTypesBatch batch = AlignedTypesBatch.begin(this.db)) {
+			scanSession(srcProjectId, projectId, session, batch);
 		}
+	}
+
+	/**
+	 * Scan session and add aligned types using the given batch
+	 *
+	 * @param srcProjectId
+	 * @param projectId
+	 * @param session
+	 * @param batch
+	 */
+	public void scanSession(UUID srcProjectId, UUID projectId, Session session, AlignedTypesBatch batch) {
+		scanSession(srcProjectId, projectId, session, batch::addAlignedTypes);
+	}
+
+	/**
+	 * Scan session and pass aligned types to the given consumer without modifying the
+	 * database.  May be called concurrently for different sessions.
+	 *
+	 * @param srcProjectId
+	 * @param projectId
+	 * @param session
+	 * @param consumer
+	 */
+	public void scanSession(UUID srcProjectId, UUID projectId, Session session, Consumer<Map<String, String>> consumer) {
+		final TierPlan plan = new TierPlan(srcProjectId, projectId, session);
 
 		for(Record record:session.getRecords()) {
 			for(int i = 0; i < record.numberOfGroups(); i++) {
@@ -75,73 +111,102 @@ public class AlignedMorphemesScanner {
 					Word w = g.getAlignedWord(j);
 					AlignedMorphemes alignedMorphemes = w.getExtension(AlignedMorphemes.class);
 					if(alignedMorphemes != null) {
-						Map<String, String> alignedTypeMap = new LinkedHashMap<>();
+						Map<String, String> alignedTypeMap = new LinkedHashMap<>(plan.mapCapacity);
 						boolean add = true;
 						for(int k = 0; k < alignedMorphemes.getMorphemeCount(); k++) {
 							AlignedMorpheme am = alignedMorphemes.getAlignedMorpheme(k);
-							for(SystemTierType systemTier:SystemTierType.values()) {
-								switch(systemTier) {
-								case Orthography:
-									final OrthoElement orthoElement = am.getOrthography();
-									final String ortho = orthoElement == null ? "" : orthoElement.toString().trim();
-									if(!"*".equals(ortho)) {
-										alignedTypeMap.put(systemTier.getName(), ortho);
-									}
-									break;
-
-								case IPATarget:
-									final IPATranscript ipaT = am.getIPATarget();
-									final String target = ipaT == null ? "" : ipaT.toString();
-									if(!"*".equals(target)) {
-										alignedTypeMap.put(systemTier.getName(), target);
-									}
-									break;
-
-								case IPAActual:
-									final IPATranscript ipaA = am.getIPAActual();
-									final String actual = ipaA == null ? "" : am.getIPAActual().toString();
-									if(!"*".equals(actual)) {
-										alignedTypeMap.put(systemTier.getName(), actual);
-									}
-									break;
-
-								default:
-									break;
-								}
-							}
 
-							for(TierDescription td: session.getUserTiers()) {
-								if(td.isGrouped()) {
-									TierString userTierVal = am.getUserTier(td.getName());
-									if (userTierVal == null) userTierVal = new TierString();
-									if (!"*".equals(userTierVal.toString())) {
-										alignedTypeMap.put(td.getName(), userTierVal.toString());
-									}
-								}
-							}
+							final OrthoElement orthoElement = am.getOrthography();
+							putType(alignedTypeMap, ORTHOGRAPHY_TIER, orthoElement == null ? "" : orthoElement.toString().trim());
+							final IPATranscript ipaT = am.getIPATarget();
+							putType(alignedTypeMap, IPA_TARGET_TIER, ipaT == null ? "" : ipaT.toString());
+							final IPATranscript ipaA = am.getIPAActual();
+							putType(alignedTypeMap, IPA_ACTUAL_TIER, ipaA == null ? "" : ipaA.toString());
 
-							if(checkForEmptyAlignment(alignedTypeMap)) add = false;
-
-							if(this.lang != null) {
-								alignedTypeMap.put(TypeMapMetadataTier.LANGUAGE.getTierName(), this.lang.getId());
-							} else if(primaryLang != null) {
-								alignedTypeMap.put(TypeMapMetadataTier.LANGUAGE.getTierName(), primaryLang.getId());
+							for(String userTier:plan.groupedUserTiers) {
+								final TierString userTierVal = am.getUserTier(userTier);
+								putType(alignedTypeMap, userTier, userTierVal == null ? "" : userTierVal.toString());
 							}
 
-							if(projectId != null) {
-								alignedTypeMap.put(TypeMapMetadataTier.PROJECT_ID.getTierName(), projectId.toString());
-							}
+							if(checkForEmptyAlignment(alignedTypeMap)) add = false;
 
-							if(srcProjectId != null) {
-								alignedTypeMap.put(TypeMapMetadataTier.SOURCE_PROJECT_ID.getTierName(), srcProjectId.toString());
+							for(int m = 0; m < plan.metadataTiers.length; m++) {
+								alignedTypeMap.put(plan.metadataTiers[m], plan.metadataValues[m]);
 							}
 						}
 						if(add)
-							this.db.addAlignedTypes(alignedTypeMap);
+							consumer.accept(alignedTypeMap);
 					}
 				}
 			}
 		}
 	}
 
+	private static void putType(Map<String, String> alignedTypeMap, String tierName, String type) {
+		if(!"*".equals(type))
+			alignedTypeMap.put(tierName, type);
+	}
+
+	/**
+	 * Tiers and metadata values computed once per session
+	 */
+	private final class TierPlan {
+
+		private final String[] groupedUserTiers;
+
+		private final String[] metadataTiers;
+
+		private final String[] metadataValues;
+
+		private final int mapCapacity;
+
+		TierPlan(UUID srcProjectId, UUID projectId, Session session) {
+			final List<String> userTiers = new ArrayList<>();
+			for(TierDescription td:session.getUserTiers()) {
+				if(td.isGrouped())
+					userTiers.add(td.getName());
+			}
+			this.groupedUserTiers = userTiers.toArray(new String[0]);
+
+			// metadata values are shared by all entries from this session
+			final String langId = (lang != null ? lang.getId() : sessionLanguageId(session));
+			final List<String> tiers = new ArrayList<>();
+			final List<String> values = new ArrayList<>();
+			if(langId != null) {
+				tiers.add(TypeMapMetadataTier.LANGUAGE.getTierName());
+				values.add(langId);
+			}
+			if(projectId != null) {
+				tiers.add(TypeMapMetadataTier.PROJECT_ID.getTierName());
+				values.add(projectId.toString());
+			}
+			if(srcProjectId != null) {
+				tiers.add(TypeMapMetadataTier.SOURCE_PROJECT_ID.getTierName());
+				values.add(srcProjectId.toString());
+			}
+			this.metadataTiers = tiers.toArray(new String[0]);
+			this.metadataValues = values.toArray(new String[0]);
+
+			final int numTiers = 3 + groupedUserTiers.length + metadataTiers.length;
+			this.mapCapacity = (numTiers * 4) / 3 + 1;
+		}
+
+	}
+
+	/**
+	 * Primary language of session or the default syllabifier language
+	 *
+	 * @param session
+	 * @return language id, may be null
+	 */
+	private static String sessionLanguageId(Session session) {
+		final String sessionLanguages = session.getLanguage();
+		LanguageEntry primaryLang = SyllabifierLibrary.getInstance().defaultSyllabifierLanguage().getPrimaryLanguage();
+		if(sessionLanguages != null && sessionLanguages.length() > 0) {
+			final int sep = sessionLanguages.indexOf(',');
+			primaryLang = LanguageParser.getInstance().getEntryById(sep < 0 ? sessionLanguages : sessionLanguages.substring(0, sep));
+		}
+		return (primaryLang != null ? primaryLang.getId() : null);
+	}
+
 }
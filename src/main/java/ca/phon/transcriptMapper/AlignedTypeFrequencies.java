@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
+import ca.phon.app.log.LogUtil;
+import ca.phon.worker.PhonWorker;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.zip.*;
+
+/**
+ * Occurrence counts for aligned type entries found in scanned sessions or entered in the
+ * editor.  The aligned types database only records whether an entry exists; counts are kept
+ * alongside the database and indexed by type so the most frequent alignments for a key type
+ * can be found without enumerating every combination of aligned types, see
+ * {@link #topAlignedTypes(String, String, List, int, Predicate)}.
+ *
+ * Counts are read from file on a background worker the first time they are used.  Queries
+ * return no counts until loaded, occurrences added before then are merged with the loaded
+ * counts.
+ *
+ * Instances are thread safe.
+ */
+public final class AlignedTypeFrequencies {
+
+	private final static int MAGIC = 0x544d4632; // 'TMF2'
+
+	/**
+	 * Counted entry, tier names and types are stored in a single array ordered by tier name
+	 */
+	private final static class Entry {
+
+		// tierName0, type0, tierName1, type1, ...
+		private final String[] values;
+
+		private final int hash;
+
+		private int count = 0;
+
+		Entry(String[] values) {
+			this.values = values;
+			this.hash = Arrays.hashCode(values);
+		}
+
+		String getType(String tierName) {
+			for(int i = 0; i < values.length; i += 2) {
+				if(values[i].equals(tierName))
+					return values[i + 1];
+			}
+			return null;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof Entry entry) && hash == entry.hash && Arrays.equals(values, entry.values);
+		}
+
+	}
+
+	private final File file;
+
+	private final Map<Entry, Entry> entries = new HashMap<>();
+
+	// type -> entries with type in a tier which is not a metadata tier
+	private final Map<String, List<Entry>> typeIndex = new HashMap<>();
+
+	private final StringPool stringPool = new StringPool();
+
+	private boolean loaded = false;
+
+	private boolean loadRequested = false;
+
+	private boolean modified = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file counts are loaded from file on first use
+	 */
+	AlignedTypeFrequencies(File file) {
+		super();
+		this.file = file;
+	}
+
+	private String[] entryValues(String[] tierNames, String[] types) {
+		final SortedMap<String, String> sorted = new TreeMap<>();
+		for(int i = 0; i < tierNames.length && i < types.length; i++) {
+			if(tierNames[i] == null || types[i] == null) continue;
+			sorted.put(tierNames[i], types[i]);
+		}
+		return entryValues(sorted);
+	}
+
+	private String[] entryValues(Map<String, String> alignedTypes) {
+		final SortedMap<String, String> sorted = new TreeMap<>();
+		for(Map.Entry<String, String> entry:alignedTypes.entrySet()) {
+			if(entry.getKey() == null || entry.getValue() == null) continue;
+			sorted.put(entry.getKey(), entry.getValue());
+		}
+		return entryValues(sorted);
+	}
+
+	private String[] entryValues(SortedMap<String, String> alignedTypes) {
+		final String[] retVal = new String[alignedTypes.size() * 2];
+		int idx = 0;
+		for(Map.Entry<String, String> entry:alignedTypes.entrySet()) {
+			retVal[idx++] = stringPool.intern(entry.getKey());
+			retVal[idx++] = stringPool.internMetadata(entry.getKey(), entry.getValue());
+		}
+		return retVal;
+	}
+
+	/**
+	 * Add occurrences of aligned types, entries with a count of zero or less are removed
+	 *
+	 * @param alignedTypes
+	 * @param occurrences number of occurrences to add, may be negative
+	 */
+	public void addOccurrences(Map<String, String> alignedTypes, int occurrences) {
+		if(occurrences == 0) return;
+		updateCount(entryValues(alignedTypes), occurrences);
+	}
+
+	public void addOccurrences(String[] tierNames, String[] types, int occurrences) {
+		if(occurrences == 0) return;
+		updateCount(entryValues(tierNames, types), occurrences);
+	}
+
+	private synchronized void updateCount(String[] values, int occurrences) {
+		if(values.length == 0) return;
+		final Entry key = new Entry(values);
+		Entry entry = entries.get(key);
+		if(entry == null) {
+			entry = key;
+			entries.put(entry, entry);
+			index(entry);
+		}
+		entry.count += occurrences;
+		modified = true;
+		if(!loaded) {
+			// count is a difference from the stored count until loaded
+			requestLoad();
+		} else if(entry.count <= 0) {
+			removeEntry(entry);
+		}
+	}
+
+	private void index(Entry entry) {
+		for(int i = 0; i < entry.values.length; i += 2) {
+			if(TypeMapMetadataTier.isMetadataTier(entry.values[i])) continue;
+			final String type = entry.values[i + 1];
+			// index entry once per type
+			boolean indexed = false;
+			for(int j = 0; j < i && !indexed; j += 2)
+				indexed = type.equals(entry.values[j + 1]) && !TypeMapMetadataTier.isMetadataTier(entry.values[j]);
+			if(!indexed)
+				typeIndex.computeIfAbsent(type, (t) -> new ArrayList<>(2)).add(entry);
+		}
+	}
+
+	private void removeEntry(Entry entry) {
+		if(entries.remove(entry) == null) return;
+		for(int i = 0; i < entry.values.length; i += 2) {
+			final List<Entry> typeEntries = typeIndex.get(entry.values[i + 1]);
+			if(typeEntries != null && typeEntries.remove(entry) && typeEntries.isEmpty())
+				typeIndex.remove(entry.values[i + 1]);
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized boolean isLoaded() {
+		return this.loaded;
+	}
+
+	public synchronized boolean isModified() {
+		return this.modified;
+	}
+
+	private void requestLoad() {
+		if(loaded || loadRequested) return;
+		loadRequested = true;
+		PhonWorker.invokeOnNewWorker(this::load, () -> {});
+	}
+
+	/**
+	 * Load counts from file if not already loaded, blocks until counts have been loaded.
+	 * Counts which could not be read are discarded.
+	 */
+	public void load() {
+		synchronized (this) {
+			if(loaded) return;
+			loadRequested = true;
+		}
+
+		final List<Entry> storedEntries = new ArrayList<>();
+		if(file.exists()) {
+			try(final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+				if(in.readInt() != MAGIC)
+					throw new IOException("Invalid frequency file");
+				final int numEntries = in.readInt();
+				for(int i = 0; i < numEntries; i++) {
+					final int numTiers = in.readInt();
+					final String[] tierNames = new String[numTiers];
+					final String[] types = new String[numTiers];
+					for(int j = 0; j < numTiers; j++) {
+						tierNames[j] = in.readUTF();
+						types[j] = in.readUTF();
+					}
+					final Entry entry = new Entry(entryValues(tierNames, types));
+					entry.count = in.readInt();
+					storedEntries.add(entry);
+				}
+			} catch (IOException e) {
+				// counts only affect the order of suggestions
+				LogUtil.warning("[TranscriptMapper] Unable to read aligned type frequencies: " + e.getLocalizedMessage(), e);
+				storedEntries.clear();
+			}
+		}
+
+		synchronized (this) {
+			if(loaded) return;
+			for(Entry storedEntry:storedEntries) {
+				final Entry entry = entries.get(storedEntry);
+				if(entry != null) {
+					entry.count += storedEntry.count;
+				} else {
+					entries.put(storedEntry, storedEntry);
+					index(storedEntry);
+				}
+			}
+			final List<Entry> emptyEntries = entries.values().stream().filter((e) -> e.count <= 0).toList();
+			emptyEntries.forEach(this::removeEntry);
+			loaded = true;
+		}
+	}
+
+	/**
+	 * Occurrence counts of entries containing keyType projected onto the given tiers.  Entries
+	 * without a value for one of the tiers are ignored; counts of entries with the same
+	 * projection (e.g., differing only in metadata) are summed.
+	 *
+	 * @param keyTier
+	 * @param keyType
+	 * @param tierNames
+	 * @return map of projected rows (in tierNames order) to counts, empty if counts are not loaded
+	 */
+	public synchronized Map<List<String>, Integer> projectedCounts(String keyTier, String keyType, List<String> tierNames) {
+		final Map<List<String>, Integer> retVal = new HashMap<>();
+		if(!loaded) {
+			requestLoad();
+			return retVal;
+		}
+		final List<Entry> typeEntries = typeIndex.get(keyType);
+		if(typeEntries == null) return retVal;
+
+		for(Entry entry:typeEntries) {
+			if(!keyType.equals(entry.getType(keyTier))) continue;
+			final String[] row = new String[tierNames.size()];
+			boolean complete = true;
+			for(int i = 0; i < row.length && complete; i++) {
+				row[i] = entry.getType(tierNames.get(i));
+				complete = (row[i] != null);
+			}
+			if(complete)
+				retVal.merge(Arrays.asList(row), entry.count, Integer::sum);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Return the k most frequent alignments for a key type.  Rows are ordered by descending
+	 * count, ties are ordered by row values.
+	 *
+	 * @param keyTier
+	 * @param keyType
+	 * @param tierNames tiers included in rows
+	 * @param k maximum number of rows
+	 * @param filter rows not accepted by filter are ignored
+	 * @return rows in tierNames order, empty if no counts are recorded for keyType
+	 * @see #projectedCounts(String, String, List)
+	 */
+	public List<String[]> topAlignedTypes(String keyTier, String keyType, List<String> tierNames, int k,
+	                                      Predicate<List<String>> filter) {
+		final Comparator<Map.Entry<List<String>, Integer>> rank =
+				Map.Entry.<List<String>, Integer>comparingByValue().reversed()
+						.thenComparing(Map.Entry.comparingByKey(AlignedTypeFrequencies::compareRows));
+		final PriorityQueue<Map.Entry<List<String>, Integer>> queue = new PriorityQueue<>(k + 1, rank.reversed());
+		for(Map.Entry<List<String>, Integer> entry:projectedCounts(keyTier, keyType, tierNames).entrySet()) {
+			if(!filter.test(entry.getKey())) continue;
+			queue.add(entry);
+			if(queue.size() > k)
+				queue.poll();
+		}
+
+		final List<Map.Entry<List<String>, Integer>> rankedEntries = new ArrayList<>(queue);
+		rankedEntries.sort(rank);
+		final List<String[]> retVal = new ArrayList<>(rankedEntries.size());
+		for(Map.Entry<List<String>, Integer> entry:rankedEntries)
+			retVal.add(entry.getKey().toArray(new String[0]));
+		return retVal;
+	}
+
+	private static int compareRows(List<String> row1, List<String> row2) {
+		for(int i = 0; i < row1.size() && i < row2.size(); i++) {
+			final int cmp = row1.get(i).compareTo(row2.get(i));
+			if(cmp != 0) return cmp;
+		}
+		return Integer.compare(row1.size(), row2.size());
+	}
+
+	/**
+	 * Write counts to file, stored counts are loaded first if necessary.  Counts of entries
+	 * no longer in db are discarded.  The file is replaced using
+	 * {@link SnapshotWriter#replaceFile(Path, Path)}.
+	 *
+	 * @param db
+	 * @throws IOException
+	 */
+	void write(AlignedTypesDatabase db) throws IOException {
+		load();
+
+		final List<Entry> writeEntries;
+		final int[] counts;
+		synchronized (this) {
+			writeEntries = new ArrayList<>(entries.size());
+			final List<Entry> removedEntries = new ArrayList<>();
+			for(Entry entry:entries.values()) {
+				final String[] tierNames = new String[entry.values.length / 2];
+				final String[] types = new String[tierNames.length];
+				for(int i = 0; i < tierNames.length; i++) {
+					tierNames[i] = entry.values[2 * i];
+					types[i] = entry.values[2 * i + 1];
+				}
+				if(db.hasAlignedTypes(tierNames, types))
+					writeEntries.add(entry);
+				else
+					removedEntries.add(entry);
+			}
+			removedEntries.forEach(this::removeEntry);
+			counts = writeEntries.stream().mapToInt((e) -> e.count).toArray();
+			modified = false;
+		}
+
+		final Path folder = file.getAbsoluteFile().getParentFile().toPath();
+		Files.createDirectories(folder);
+		final Path tmpPath = Files.createTempFile(folder, ".freq-", ".tmp");
+		try {
+			try(final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmpPath.toFile()))))) {
+				out.writeInt(MAGIC);
+				out.writeInt(writeEntries.size());
+				for(int i = 0; i < writeEntries.size(); i++) {
+					final String[] values = writeEntries.get(i).values;
+					out.writeInt(values.length / 2);
+					for(String value:values)
+						out.writeUTF(value);
+					out.writeInt(counts[i]);
+				}
+			}
+			SnapshotWriter.replaceFile(tmpPath, file.toPath());
+		} catch (IOException e) {
+			synchronized (this) {
+				modified = true;
+			}
+			throw e;
+		} finally {
+			Files.deleteIfExists(tmpPath);
+		}
+	}
+
+}
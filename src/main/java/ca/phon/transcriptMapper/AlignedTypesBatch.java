@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.*;
+import ca.phon.util.Tuple;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scope for bulk modifications of an aligned types database.  If the database is the user
+ * database (or one of its language shards) modification events are deferred while the batch
+ * is open and a single {@link UserATDB#BATCH_PROP} event with this batch as the new value is
+ * fired when the batch is closed.  Entries are not counted in {@link UserATDB#getFrequencies()},
+ * occurrences found by session scans are recorded using {@link #addOccurrences(Map, int)}.
+ *
+ * Modifications of a batch are written to disk with the next snapshot of the user database.
+ * Use {@link #beginJournaled(AlignedTypesDatabase)} for modifications which must be durable
+ * after the next {@link UserATDB#saveDb()} without requiring a new snapshot.
+ *
+ * <pre>
+ * try(AlignedTypesBatch batch = AlignedTypesBatch.begin(db)) {
+ *     batch.addAlignedTypes(alignedTypes);
+ * }
+ * </pre>
+ */
+public final class AlignedTypesBatch implements AutoCloseable {
+
+	private final AlignedTypesDatabase db;
+
+	private final boolean userDb;
+
+	private final boolean journaled;
+
+	private final AtomicInteger addedCount = new AtomicInteger(0);
+
+	private final AtomicInteger removedCount = new AtomicInteger(0);
+
+	private final AtomicInteger skippedCount = new AtomicInteger(0);
+
+	private final Set<String> tierNames = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Begin a new batch for the given database
+	 *
+	 * @param db
+	 * @return new batch
+	 */
+	public static AlignedTypesBatch begin(AlignedTypesDatabase db) {
+		final UserATDB userATDB = UserATDB.getInstance();
+		final AlignedTypesBatch retVal = new AlignedTypesBatch(db, userATDB.isUserDatabase(db), false);
+		if(retVal.userDb)
+			userATDB.beginBatch(retVal);
+		return retVal;
+	}
+
+	/**
+	 * Begin a new batch for the given database.  If db is the user database modifications
+	 * are recorded in the user database journal, otherwise this is the same as
+	 * {@link #begin(AlignedTypesDatabase)}.
+	 *
+	 * @param db
+	 * @return new batch
+	 */
+	public static AlignedTypesBatch beginJournaled(AlignedTypesDatabase db) {
+		final UserATDB userATDB = UserATDB.getInstance();
+		final AlignedTypesBatch retVal = new AlignedTypesBatch(db, userATDB.isUserDatabase(db), userATDB.isMainDatabase(db));
+		if(retVal.userDb)
+			userATDB.beginBatch(retVal);
+		return retVal;
+	}
+
+	private AlignedTypesBatch(AlignedTypesDatabase db, boolean userDb, boolean journaled) {
+		this.db = db;
+		this.userDb = userDb;
+		this.journaled = journaled;
+	}
+
+	public AlignedTypesDatabase getDatabase() {
+		return this.db;
+	}
+
+	public void addAlignedTypes(Map<String, String> alignedTypes) {
+		if(journaled) {
+			final Tuple<String[], String[]> arrays = AlignedTypesUtil.alignedTypesToArrays(alignedTypes);
+			addAlignedTypes(arrays.getObj1(), arrays.getObj2());
+			return;
+		}
+		lock();
+		try {
+			db.addAlignedTypes(alignedTypes);
+		} finally {
+			unlock();
+		}
+		addedCount.incrementAndGet();
+		tierNames.addAll(alignedTypes.keySet());
+	}
+
+	public void addAlignedTypes(String[] tierNames, String[] types) {
+		lock();
+		try {
+			if(journaled)
+				UserATDB.getInstance().performJournaledOperation(db, AlignedTypesEdit.Operation.ADD, tierNames, types);
+			else
+				db.addAlignedTypes(tierNames, types);
+		} finally {
+			unlock();
+		}
+		addedCount.incrementAndGet();
+		this.tierNames.addAll(Arrays.asList(tierNames));
+	}
+
+	/**
+	 * Record additional occurrences of aligned types without modifying the database.
+	 * Has no effect unless the batch is on the user database.
+	 *
+	 * @param alignedTypes
+	 * @param occurrences number of occurrences to add, may be negative
+	 */
+	public void addOccurrences(Map<String, String> alignedTypes, int occurrences) {
+		if(userDb)
+			UserATDB.getInstance().getFrequencies().addOccurrences(alignedTypes, occurrences);
+	}
+
+	/**
+	 * Add aligned types unless already present in the database.  Existing entries are
+	 * skipped with a single lookup, leaving the database untouched.
+	 *
+	 * @param alignedTypes
+	 * @return true if aligned types were added
+	 */
+	public boolean addAlignedTypesIfAbsent(Map<String, String> alignedTypes) {
+		if(db.hasAlignedTypes(alignedTypes)) {
+			skippedCount.incrementAndGet();
+			return false;
+		}
+		addAlignedTypes(alignedTypes);
+		return true;
+	}
+
+	/**
+	 * Add aligned types unless already present in the database.
+	 *
+	 * @param tierNames
+	 * @param types
+	 * @return true if aligned types were added
+	 * @see #addAlignedTypesIfAbsent(Map)
+	 */
+	public boolean addAlignedTypesIfAbsent(String[] tierNames, String[] types) {
+		if(db.hasAlignedTypes(tierNames, types)) {
+			skippedCount.incrementAndGet();
+			return false;
+		}
+		addAlignedTypes(tierNames, types);
+		return true;
+	}
+
+	public void removeAlignedTypes(String[] tierNames, String[] types) {
+		lock();
+		try {
+			if(journaled)
+				UserATDB.getInstance().performJournaledOperation(db, AlignedTypesEdit.Operation.REMOVE, tierNames, types);
+			else
+				db.removeAlignedTypes(tierNames, types);
+		} finally {
+			unlock();
+		}
+		removedCount.incrementAndGet();
+		this.tierNames.addAll(Arrays.asList(tierNames));
+	}
+
+	// user database snapshots are not written while an entry is modified
+	private void lock() {
+		if(userDb)
+			UserATDB.getInstance().getModificationLock().lock();
+	}
+
+	private void unlock() {
+		if(userDb)
+			UserATDB.getInstance().getModificationLock().unlock();
+	}
+
+	/**
+	 * @return number of aligned type entries added in this batch
+	 */
+	public int getAddedCount() {
+		return addedCount.get();
+	}
+
+	/**
+	 * @return number of aligned type entries removed in this batch
+	 */
+	public int getRemovedCount() {
+		return removedCount.get();
+	}
+
+	/**
+	 * @return number of entries skipped as they already existed in the database
+	 */
+	public int getSkippedCount() {
+		return skippedCount.get();
+	}
+
+	/**
+	 * @return names of tiers touched by this batch
+	 */
+	public Set<String> getTierNames() {
+		return Collections.unmodifiableSet(tierNames);
+	}
+
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Close the batch and fire summary event
+	 */
+	@Override
+	public void close() {
+		if(closed) return;
+		closed = true;
+		if(userDb)
+			UserATDB.getInstance().endBatch(this);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d added, %d removed, %d skipped, tiers %s", getAddedCount(), getRemovedCount(),
+				getSkippedCount(), tierNames);
+	}
+
+}
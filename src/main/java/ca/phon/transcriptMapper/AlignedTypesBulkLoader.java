@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import java.util.*;
+
+/**
+ * Bulk insertion of aligned types.  Entries are sorted on the key tier and inserted in
+ * balanced (median first) order so that the type tree for the key tier has minimal depth
+ * regardless of the order in which entries were collected.
+ */
+final class AlignedTypesBulkLoader {
+
+	private final String keyTier;
+
+	private final List<Map<String, String>> alignedTypesList = new ArrayList<>();
+
+	AlignedTypesBulkLoader(String keyTier) {
+		this.keyTier = keyTier;
+	}
+
+	public String getKeyTier() {
+		return this.keyTier;
+	}
+
+	public void add(Map<String, String> alignedTypes) {
+		alignedTypesList.add(alignedTypes);
+	}
+
+	public int size() {
+		return alignedTypesList.size();
+	}
+
+	/**
+	 * Insert all entries using the given batch and clear this loader.  Entries already
+	 * in the database are skipped.
+	 *
+	 * @param batch
+	 */
+	public void load(AlignedTypesBatch batch) {
+		final Comparator<Map<String, String>> keyComparator =
+				Comparator.comparing((Map<String, String> alignedTypes) -> alignedTypes.getOrDefault(keyTier, ""));
+		alignedTypesList.sort(keyComparator);
+
+		// entries with the same key are inserted together
+		final List<Integer> groupStarts = new ArrayList<>();
+		String prevKey = null;
+		for(int i = 0; i < alignedTypesList.size(); i++) {
+			final String key = alignedTypesList.get(i).getOrDefault(keyTier, "");
+			if(!key.equals(prevKey))
+				groupStarts.add(i);
+			prevKey = key;
+		}
+		groupStarts.add(alignedTypesList.size());
+
+		for(int groupIdx:balancedOrder(groupStarts.size() - 1)) {
+			for(int i = groupStarts.get(groupIdx); i < groupStarts.get(groupIdx + 1); i++) {
+				batch.addAlignedTypesIfAbsent(alignedTypesList.get(i));
+			}
+		}
+		alignedTypesList.clear();
+	}
+
+	/**
+	 * Return indices [0, n) in level order of a balanced binary tree built over the sorted
+	 * range, i.e., the median first followed by the medians of each half.
+	 *
+	 * @param n
+	 * @return balanced insertion order
+	 */
+	static int[] balancedOrder(int n) {
+		final int[] retVal = new int[n];
+		int idx = 0;
+		final Deque<int[]> ranges = new ArrayDeque<>();
+		if(n > 0)
+			ranges.add(new int[]{0, n});
+		while(!ranges.isEmpty()) {
+			final int[] range = ranges.poll();
+			final int mid = (range[0] + range[1]) >>> 1;
+			retVal[idx++] = mid;
+			if(range[0] < mid)
+				ranges.add(new int[]{range[0], mid});
+			if(mid + 1 < range[1])
+				ranges.add(new int[]{mid + 1, range[1]});
+		}
+		return retVal;
+	}
+
+}
@@ -27,6 +27,9 @@ public class AlignedTypesEdit extends SessionEditorUndoableEdit {
 
 	private final TranscriptMapperEditorView view;
 
+	// user database or language shard modified by this edit
+	private final AlignedTypesDatabase db;
+
 	private final String[] tierNames;
 
 	private final String[] types;
@@ -37,12 +40,18 @@ public class AlignedTypesEdit extends SessionEditorUndoableEdit {
 	 * Constructor
 	 *
 	 * @param editor
+	 * @param view
+	 * @param db user database or one of its language shards
+	 * @param operation
+	 * @param tierNames
+	 * @param types
 	 */
-	public AlignedTypesEdit(SessionEditor editor, TranscriptMapperEditorView view,
+	public AlignedTypesEdit(SessionEditor editor, TranscriptMapperEditorView view, AlignedTypesDatabase db,
 	                        Operation operation, String[] tierNames, String[] types) {
 		super(editor);
 
 		this.view = view;
+		this.db = db;
 		this.tierNames = tierNames;
 		this.types = types;
 		this.operation = operation;
@@ -50,21 +59,20 @@ public class AlignedTypesEdit extends SessionEditorUndoableEdit {
 
 	@Override
 	public void doIt() {
-		final AlignedTypesDatabase db = view.getUserDb();
-		switch (operation) {
-			case ADD -> db.addAlignedTypes(tierNames, types);
-			case REMOVE -> db.removeAlignedTypes(tierNames, types);
-		}
-		view.updateAfterDbChange();
+		perform(operation, 1);
 	}
 
 	@Override
 	public void undo() {
-		final AlignedTypesDatabase db = view.getUserDb();
-		switch (operation) {
-			case ADD -> db.removeAlignedTypes(tierNames, types);
-			case REMOVE -> db.addAlignedTypes(tierNames, types);
-		}
+		perform(operation == Operation.ADD ? Operation.REMOVE : Operation.ADD, -1);
+	}
+
+	private void perform(Operation op, int occurrences) {
+		final UserATDB userATDB = UserATDB.getInstance();
+		if(!userATDB.performOperation(db, op, tierNames, types)) return;
+		// counts of removed entries are kept until the next save, undo restores them
+		if(operation == Operation.ADD && userATDB.isMainDatabase(db))
+			userATDB.getFrequencies().addOccurrences(tierNames, types, occurrences);
 		view.updateAfterDbChange();
 	}
 
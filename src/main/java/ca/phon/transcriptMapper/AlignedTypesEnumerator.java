@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Enumerates aligned type entries stored in a database given the options for each tier.
+ * Unlike a filtered cartesian product, tuples are built one tier at a time and a partial
+ * tuple is abandoned as soon as any pair of its types is not aligned, so the work done is
+ * proportional to the number of consistent partial tuples rather than the product of
+ * option counts.  Tiers with the fewest options are assigned first.
+ */
+final class AlignedTypesEnumerator {
+
+	private final AlignedTypesDatabase db;
+
+	AlignedTypesEnumerator(AlignedTypesDatabase db) {
+		this.db = db;
+	}
+
+	/**
+	 * Enumerate aligned type entries for a key type.  Options for each tier are reduced by
+	 * the filter before enumeration; filtered tiers which are not in tierNames are used
+	 * for enumeration and then dropped, duplicate rows are only reported once.
+	 *
+	 * @param keyTier
+	 * @param keyType
+	 * @param tierNames tiers to include in rows, tierNames[0] must be keyTier
+	 * @param filter
+	 * @param consumer
+	 */
+	public void enumerate(String keyTier, String keyType, String[] tierNames, ExportFilter filter,
+	                      Consumer<String[]> consumer) {
+		final String[] enumTiers = filter.enumerationTiers(tierNames);
+		final Map<String, String[]> alignedTypes = db.alignedTypesForTier(keyTier, keyType, Arrays.asList(enumTiers));
+
+		final String[][] typeOpts = new String[enumTiers.length][];
+		typeOpts[0] = filter.filterOptions(keyTier, new String[]{ keyType });
+		for(int i = 1; i < enumTiers.length; i++) {
+			final String[] tierOpts = alignedTypes.get(enumTiers[i]);
+			typeOpts[i] = filter.filterOptions(enumTiers[i], (tierOpts != null ? tierOpts : new String[0]));
+		}
+
+		if(enumTiers.length == tierNames.length) {
+			enumerate(enumTiers, typeOpts, consumer);
+		} else {
+			final Set<List<String>> rows = new HashSet<>();
+			enumerate(enumTiers, typeOpts, (row) -> {
+				final String[] projectedRow = Arrays.copyOf(row, tierNames.length);
+				if(rows.add(Arrays.asList(projectedRow)))
+					consumer.accept(projectedRow);
+			});
+		}
+	}
+
+	/**
+	 * Resolve the stored entries for a projection of an entry (e.g., an alignment option
+	 * showing only visible tiers.)  Other tiers of the database, including metadata tiers,
+	 * are added when they have types aligned with every given type; each complete entry
+	 * found is passed to consumer.  If no complete entry is found the given types are
+	 * reported as-is when they exist in the database.
+	 *
+	 * @param tierNames
+	 * @param types
+	 * @param consumer receives tier names and types of each entry
+	 */
+	public void resolveEntries(String[] tierNames, String[] types, BiConsumer<String[], String[]> consumer) {
+		if(tierNames.length == 0) return;
+		final List<String> tierList = Arrays.asList(tierNames);
+
+		final List<String> extraTiers = new ArrayList<>();
+		for(String tierName:db.tierNames()) {
+			if(!tierList.contains(tierName)) extraTiers.add(tierName);
+		}
+		final Map<String, String[]> extraAlignedTypes = db.alignedTypesForTier(tierNames[0], types[0], extraTiers);
+
+		final List<String> allTiers = new ArrayList<>(tierList);
+		final List<String[]> allOpts = new ArrayList<>();
+		for(String type:types)
+			allOpts.add(new String[]{ type });
+		for(String tierName:extraTiers) {
+			final String[] opts = extraAlignedTypes.get(tierName);
+			if(opts == null) continue;
+			final String[] alignedOpts = Arrays.stream(opts).filter((opt) -> {
+				for(int i = 0; i < tierNames.length; i++) {
+					if(!db.alignmentExists(tierName, opt, tierNames[i], types[i])) return false;
+				}
+				return true;
+			}).toArray(String[]::new);
+			if(alignedOpts.length > 0) {
+				allTiers.add(tierName);
+				allOpts.add(alignedOpts);
+			}
+		}
+
+		final String[] allTierArray = allTiers.toArray(new String[0]);
+		final boolean[] found = new boolean[1];
+		enumerate(allTierArray, allOpts.toArray(new String[0][]), (row) -> {
+			found[0] = true;
+			consumer.accept(allTierArray, row);
+		});
+		if(!found[0] && db.hasAlignedTypes(tierNames, types))
+			consumer.accept(tierNames, types);
+	}
+
+	/**
+	 * Return aligned type entries
+	 *
+	 * @param tierNames
+	 * @param typeOpts options for each tier, typeOpts[0] is usually the single key type
+	 * @return list of rows in tierNames order
+	 * @see #enumerate(String[], String[][], Consumer)
+	 */
+	public List<String[]> enumerate(String[] tierNames, String[][] typeOpts) {
+		final List<String[]> retVal = new ArrayList<>();
+		enumerate(tierNames, typeOpts, retVal::add);
+		return retVal;
+	}
+
+	/**
+	 * Enumerate aligned type entries, each row is passed to the given consumer as a new array.
+	 * Nothing is enumerated if any tier has no options.
+	 *
+	 * @param tierNames
+	 * @param typeOpts options for each tier
+	 * @param consumer
+	 */
+	public void enumerate(String[] tierNames, String[][] typeOpts, Consumer<String[]> consumer) {
+		if(tierNames.length == 0) return;
+		final Integer[] order = new Integer[tierNames.length];
+		for(int i = 0; i < tierNames.length; i++) {
+			if(typeOpts[i] == null || typeOpts[i].length == 0) return;
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingInt((Integer i) -> typeOpts[i].length));
+
+		enumerate(tierNames, typeOpts, order, 0, new String[tierNames.length], consumer);
+	}
+
+	private void enumerate(String[] tierNames, String[][] typeOpts, Integer[] order, int depth, String[] row,
+	                       Consumer<String[]> consumer) {
+		if(depth == order.length) {
+			// pairwise alignment is necessary but may not be sufficient for the database
+			if(db.hasAlignedTypes(tierNames, row))
+				consumer.accept(row.clone());
+			return;
+		}
+
+		final int tierIdx = order[depth];
+		for(String type:typeOpts[tierIdx]) {
+			boolean aligned = true;
+			for(int i = 0; i < depth && aligned; i++) {
+				final int prevIdx = order[i];
+				aligned = db.alignmentExists(tierNames[tierIdx], type, tierNames[prevIdx], row[prevIdx]);
+			}
+			if(aligned) {
+				row[tierIdx] = type;
+				enumerate(tierNames, typeOpts, order, depth + 1, row, consumer);
+			}
+		}
+		row[tierIdx] = null;
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Splits csv data into raw records without parsing fields.  Line breaks inside quoted
+ * fields do not end a record.  Records are parsed later using
+ * {@link au.com.bytecode.opencsv.CSVParser#parseLine(String)}, allowing chunks of records
+ * to be parsed in parallel.
+ */
+final class CSVRecordReader implements Closeable {
+
+	private final static char QUOTE_CHAR = '"';
+
+	private final static char ESCAPE_CHAR = '\\';
+
+	private final Reader reader;
+
+	private final char[] buffer = new char[64 * 1024];
+
+	private int bufferPos = 0;
+
+	private int bufferLen = 0;
+
+	CSVRecordReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Read next record
+	 *
+	 * @return record text without line terminator or null at end of input
+	 * @throws IOException
+	 */
+	public String readRecord() throws IOException {
+		final StringBuilder builder = new StringBuilder();
+		boolean inQuotes = false;
+		boolean escaped = false;
+		boolean eof = true;
+		while(fillBuffer()) {
+			eof = false;
+			final char c = buffer[bufferPos++];
+			if(escaped) {
+				escaped = false;
+			} else if(c == ESCAPE_CHAR) {
+				escaped = true;
+			} else if(c == QUOTE_CHAR) {
+				inQuotes = !inQuotes;
+			} else if(c == '\n' && !inQuotes) {
+				final int len = builder.length();
+				if(len > 0 && builder.charAt(len - 1) == '\r')
+					builder.setLength(len - 1);
+				return builder.toString();
+			}
+			builder.append(c);
+		}
+		return (eof ? null : builder.toString());
+	}
+
+	/**
+	 * Read up to maxRecords records
+	 *
+	 * @param maxRecords
+	 * @return list of records, empty at end of input
+	 * @throws IOException
+	 */
+	public List<String> readRecords(int maxRecords) throws IOException {
+		final List<String> retVal = new ArrayList<>();
+		String record = null;
+		while(retVal.size() < maxRecords && (record = readRecord()) != null) {
+			retVal.add(record);
+		}
+		return retVal;
+	}
+
+	private boolean fillBuffer() throws IOException {
+		if(bufferPos < bufferLen) return true;
+		bufferLen = reader.read(buffer, 0, buffer.length);
+		bufferPos = 0;
+		return bufferLen > 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
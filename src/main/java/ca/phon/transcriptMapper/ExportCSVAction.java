@@ -19,18 +19,31 @@ import ca.phon.worker.PhonWorker;
 
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.util.List;
 
 public class ExportCSVAction extends TranscriptMapperAction {
 
 	public static String TXT = "Export data to csv file...";
 
-	public static String DESC = "Export data for selected key tier to csv file";
+	public static String DESC = "Export data for selected key tier to csv file (language shards are not included)";
+
+	public static String PROJECT_TXT = "Export project data to csv file...";
+
+	public static String PROJECT_DESC = "Export data for selected key tier contributed by the current project to csv file (language shards are not included)";
+
+	// only export entries for the current project
+	private final boolean projectOnly;
 
 	public ExportCSVAction(TranscriptMapperEditorView view) {
+		this(view, false);
+	}
+
+	public ExportCSVAction(TranscriptMapperEditorView view, boolean projectOnly) {
 		super(view);
 
-		putValue(NAME, TXT);
-		putValue(SHORT_DESCRIPTION, DESC);
+		this.projectOnly = projectOnly;
+		putValue(NAME, projectOnly ? PROJECT_TXT : TXT);
+		putValue(SHORT_DESCRIPTION, projectOnly ? PROJECT_DESC : DESC);
 	}
 
 	@Override
@@ -52,9 +65,11 @@ public class ExportCSVAction extends TranscriptMapperAction {
 	}
 
 	private void exportDatabaseAsCSV(String filename) {
-		final ExportCSVTask exportTask = new ExportCSVTask(getView().getUserDb(), new File(filename),
+		final ExportCSVTask exportTask = new ExportCSVTask(new File(filename),
 				getView().keyTier(), getView().getVisibleOptionsTiers().toArray(new String[0]));
-		exportTask.setName(DESC);
+		if(projectOnly)
+			exportTask.setFilter(new ExportFilter().setProjectIds(List.of(getView().getEditor().getProject().getUUID())));
+		exportTask.setName(projectOnly ? PROJECT_DESC : DESC);
 
 		getView().getEditor().getStatusBar().watchTask(exportTask);
 		PhonWorker.invokeOnNewWorker(exportTask, () -> {});
@@ -16,14 +16,25 @@ package ca.phon.transcriptMapper;
 
 import au.com.bytecode.opencsv.CSVWriter;
 import ca.phon.alignedTypesDatabase.*;
+import ca.phon.app.log.LogUtil;
 import ca.phon.worker.PhonTask;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
 
+/**
+ * Export aligned types to a csv file.
+ *
+ * Key types are split into partitions which are exported concurrently into in-memory
+ * buffers, see {@link PartitionedExport}.  Buffers are written to the file in partition
+ * order, the output is the same as a serial export.
+ */
 public class ExportCSVTask extends PhonTask {
 
-	private final AlignedTypesDatabase db;
+	// target database, null to use the user database once loaded
+	private AlignedTypesDatabase db;
 
 	private final File csvFile;
 
@@ -31,6 +42,8 @@ public class ExportCSVTask extends PhonTask {
 
 	private final String[] tierNames;
 
+	private ExportFilter filter = new ExportFilter();
+
 	public ExportCSVTask(AlignedTypesDatabase db, File csvFile, String keyTier, String[] tierNames) {
 		super();
 
@@ -40,58 +53,102 @@ public class ExportCSVTask extends PhonTask {
 		this.tierNames = tierNames;
 	}
 
-	private CSVWriter createWriter() throws IOException {
-		return new CSVWriter(new OutputStreamWriter(new FileOutputStream(csvFile), "UTF-8"));
+	/**
+	 * Export the user database as CSV, the database is resolved when the task is run
+	 *
+	 * @param csvFile
+	 * @param keyTier
+	 * @param tierNames
+	 */
+	public ExportCSVTask(File csvFile, String keyTier, String[] tierNames) {
+		this(null, csvFile, keyTier, tierNames);
+	}
+
+	public ExportFilter getFilter() {
+		return this.filter;
+	}
+
+	public void setFilter(ExportFilter filter) {
+		this.filter = (filter != null ? filter : new ExportFilter());
+	}
+
+	private Writer createWriter(File file) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
 	}
 
 	@Override
 	public void performTask() {
 		super.setStatus(TaskStatus.RUNNING);
 
+		if(db == null)
+			db = UserATDB.getInstance().getATDB();
+		if(db == null) {
+			super.err = new IOException("Unable to load user database");
+			super.setStatus(TaskStatus.ERROR);
+			return;
+		}
+
+		List<String> tiers = new ArrayList<>();
+		tiers.addAll(List.of(tierNames));
+		tiers.remove(keyTier);
+		tiers.add(0, keyTier);
+		final String[] tierArray = tiers.toArray(new String[0]);
+
+		final List<String> keyTypes = filter.keyTypes(db, keyTier);
 		try {
-			final CSVWriter writer = createWriter();
-
-			List<String> tiers = new ArrayList<>();
-			tiers.addAll(List.of(tierNames));
-			tiers.remove(keyTier);
-			tiers.add(0, keyTier);
-
-			// write header
-			writer.writeNext(tiers.toArray(new String[0]));
-			writer.flush();
-
-			final Collection<String> typesForTier = db.typesForTier(keyTier);
-			for(String type: typesForTier) {
-				if(tiers.size() == 1) {
-
-				} else {
-					Map<String, String[]> alignedTypes = db.alignedTypesForTier(keyTier, type, tiers);
-
-					String[][] typeOpts = new String[tiers.size()][];
-					typeOpts[0] = new String[]{type};
-					for (int i = 1; i < tiers.size(); i++) {
-						String tierName = tiers.get(i);
-						String[] tierOpts = alignedTypes.get(tierName);
-						if (tierOpts == null)
-							tierOpts = new String[0];
-						typeOpts[i] = tierOpts;
+			final long startTime = System.currentTimeMillis();
+
+			final boolean complete = PartitionedExport.writeFile(csvFile, (tmpFile) -> {
+				try(final Writer writer = createWriter(tmpFile)) {
+					// write header
+					final StringWriter header = new StringWriter();
+					try(final CSVWriter headerWriter = new CSVWriter(header)) {
+						headerWriter.writeNext(tierArray);
 					}
+					writer.write(header.toString());
 
-					String[][] filteredCartesianProduct =
-							CartesianProduct.stringArrayProduct(typeOpts, (set) -> db.hasAlignedTypes(tiers.toArray(new String[0]), set));
-					for (String[] row : filteredCartesianProduct) {
-						writer.writeNext(row);
-					}
+					PartitionedExport.export(keyTypes, (partition) -> exportPartition(tierArray, partition), writer::write,
+							this::isShutdown, this::setProgress);
 				}
-			}
-
-			writer.flush();
+				return !isShutdown();
+			});
 
-			super.setStatus(TaskStatus.FINISHED);
+			if(complete) {
+				LogUtil.info(String.format("[TranscriptMapper] Exported %d types to %s in %d ms", keyTypes.size(),
+						csvFile.getAbsolutePath(), System.currentTimeMillis() - startTime));
+			}
+			super.setStatus(complete ? TaskStatus.FINISHED : TaskStatus.TERMINATED);
 		} catch (IOException e) {
 			super.err = e;
 			super.setStatus(TaskStatus.ERROR);
+		} catch (ExecutionException e) {
+			super.err = e.getCause();
+			super.setStatus(TaskStatus.ERROR);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			super.setStatus(TaskStatus.TERMINATED);
+		}
+	}
+
+	/**
+	 * Export aligned types for a range of key types
+	 *
+	 * @param tierArray
+	 * @param partition
+	 * @return csv data for partition or null if cancelled
+	 */
+	private String exportPartition(String[] tierArray, List<String> partition) throws IOException {
+		if(tierArray.length == 1) return "";
+
+		final AlignedTypesEnumerator enumerator = new AlignedTypesEnumerator(db);
+		final StringWriter buffer = new StringWriter();
+		try(final CSVWriter writer = new CSVWriter(buffer)) {
+			for(String type:partition) {
+				if(isShutdown()) return null;
+				enumerator.enumerate(keyTier, type, tierArray, filter, writer::writeNext);
+			}
 		}
+		return buffer.toString();
 	}
 
 }
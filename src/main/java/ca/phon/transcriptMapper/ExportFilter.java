@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
+
+import java.util.*;
+
+/**
+ * Restricts exported aligned types to entries where each filtered tier has one of the
+ * allowed values.  Filters are applied during enumeration: candidate key types are found
+ * using the types aligned with the allowed values and tier options are reduced to allowed
+ * values before tuples are built.  Filtered tiers do not need to be exported.
+ */
+public final class ExportFilter {
+
+	private final Map<String, Set<String>> tierFilters = new LinkedHashMap<>();
+
+	public ExportFilter() {
+		super();
+	}
+
+	/**
+	 * Only export entries where tierName has one of the given values.  Calling this
+	 * method again for the same tier replaces the filter.
+	 *
+	 * @param tierName
+	 * @param values
+	 * @return this filter
+	 */
+	public ExportFilter setTierFilter(String tierName, Collection<String> values) {
+		tierFilters.put(tierName, new LinkedHashSet<>(values));
+		return this;
+	}
+
+	public ExportFilter setTierFilter(TypeMapMetadataTier metadataTier, Collection<String> values) {
+		return setTierFilter(metadataTier.getTierName(), values);
+	}
+
+	public ExportFilter setLanguages(Collection<String> langIds) {
+		return setTierFilter(TypeMapMetadataTier.LANGUAGE, langIds);
+	}
+
+	public ExportFilter setProjectIds(Collection<UUID> projectIds) {
+		return setTierFilter(TypeMapMetadataTier.PROJECT_ID, projectIds.stream().map(UUID::toString).toList());
+	}
+
+	public ExportFilter setSourceProjectIds(Collection<UUID> projectIds) {
+		return setTierFilter(TypeMapMetadataTier.SOURCE_PROJECT_ID, projectIds.stream().map(UUID::toString).toList());
+	}
+
+	public void clearTierFilter(String tierName) {
+		tierFilters.remove(tierName);
+	}
+
+	public boolean isEmpty() {
+		return tierFilters.isEmpty();
+	}
+
+	public Set<String> getFilteredTiers() {
+		return Collections.unmodifiableSet(tierFilters.keySet());
+	}
+
+	/**
+	 * Tiers to include in enumeration, exported tiers followed by filtered tiers which are
+	 * not exported.
+	 *
+	 * @param exportTiers
+	 * @return enumeration tiers
+	 */
+	String[] enumerationTiers(String[] exportTiers) {
+		final Set<String> retVal = new LinkedHashSet<>(Arrays.asList(exportTiers));
+		retVal.addAll(tierFilters.keySet());
+		return retVal.toArray(new String[0]);
+	}
+
+	/**
+	 * Remove options which do not pass the filter for the given tier
+	 *
+	 * @param tierName
+	 * @param opts
+	 * @return filtered options
+	 */
+	String[] filterOptions(String tierName, String[] opts) {
+		final Set<String> allowed = tierFilters.get(tierName);
+		if(allowed == null || opts == null) return opts;
+		return Arrays.stream(opts).filter(allowed::contains).toArray(String[]::new);
+	}
+
+	/**
+	 * Return candidate key types.  Without filters this is every type in the key tier,
+	 * otherwise only types aligned with an allowed value of every filtered tier are
+	 * returned (sorted.)
+	 *
+	 * @param db
+	 * @param keyTier
+	 * @return key types to export
+	 */
+	List<String> keyTypes(AlignedTypesDatabase db, String keyTier) {
+		if(tierFilters.isEmpty())
+			return new ArrayList<>(db.typesForTier(keyTier));
+
+		Set<String> candidates = null;
+		for(String tierName:tierFilters.keySet()) {
+			final Set<String> tierCandidates = new HashSet<>();
+			for(String value:tierFilters.get(tierName)) {
+				if(tierName.equals(keyTier)) {
+					if(db.typeExistsInTier(value, keyTier))
+						tierCandidates.add(value);
+					continue;
+				}
+				final String[] keyTypes = db.alignedTypesForTier(tierName, value, List.of(keyTier)).get(keyTier);
+				if(keyTypes != null)
+					tierCandidates.addAll(Arrays.asList(keyTypes));
+			}
+			if(candidates == null)
+				candidates = tierCandidates;
+			else
+				candidates.retainAll(tierCandidates);
+			if(candidates.isEmpty()) break;
+		}
+		final List<String> retVal = new ArrayList<>(candidates);
+		Collections.sort(retVal);
+		return retVal;
+	}
+
+	@Override
+	public String toString() {
+		return tierFilters.toString();
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
+import ca.phon.app.log.LogUtil;
+import ca.phon.util.PrefHelper;
+import ca.phon.worker.PhonTask;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Export aligned types to a binary {@link TypeMapFile}.  Rows are enumerated in partitions
+ * of key types concurrently and written in partition order, see {@link PartitionedExport}.
+ */
+public class ExportTypeMapTask extends PhonTask {
+
+	/**
+	 * Compress type map blocks
+	 */
+	public final static String COMPRESS_PROP = ExportTypeMapTask.class.getName() + ".compress";
+	public final static boolean DEFAULT_COMPRESS = true;
+
+	// target database, null to use the user database once loaded
+	private AlignedTypesDatabase db;
+
+	private final File file;
+
+	private final String keyTier;
+
+	private final String[] tierNames;
+
+	private ExportFilter filter = new ExportFilter();
+
+	public ExportTypeMapTask(AlignedTypesDatabase db, File file, String keyTier, String[] tierNames) {
+		super();
+
+		this.db = db;
+		this.file = file;
+		this.keyTier = keyTier;
+		this.tierNames = tierNames;
+	}
+
+	/**
+	 * Export the user database as a type map file, the database is resolved when the task is run
+	 *
+	 * @param file
+	 * @param keyTier
+	 * @param tierNames
+	 */
+	public ExportTypeMapTask(File file, String keyTier, String[] tierNames) {
+		this(null, file, keyTier, tierNames);
+	}
+
+	public ExportFilter getFilter() {
+		return this.filter;
+	}
+
+	public void setFilter(ExportFilter filter) {
+		this.filter = (filter != null ? filter : new ExportFilter());
+	}
+
+	@Override
+	public void performTask() {
+		super.setStatus(TaskStatus.RUNNING);
+
+		if(db == null)
+			db = UserATDB.getInstance().getATDB();
+		if(db == null) {
+			super.err = new IOException("Unable to load user database");
+			super.setStatus(TaskStatus.ERROR);
+			return;
+		}
+
+		List<String> tiers = new ArrayList<>();
+		tiers.addAll(List.of(tierNames));
+		tiers.remove(keyTier);
+		tiers.add(0, keyTier);
+		final String[] tierArray = tiers.toArray(new String[0]);
+
+		final List<String> keyTypes = filter.keyTypes(db, keyTier);
+		final boolean compress = PrefHelper.getBoolean(COMPRESS_PROP, DEFAULT_COMPRESS);
+		try {
+			final long startTime = System.currentTimeMillis();
+
+			final int[] rowsWritten = new int[1];
+			final boolean complete = PartitionedExport.writeFile(file, (tmpFile) -> {
+				// end marker is written on close, file is only moved into place if complete
+				try(final TypeMapFile.Writer writer = new TypeMapFile.Writer(tmpFile, tierArray, compress)) {
+					PartitionedExport.export(keyTypes, (partition) -> exportPartition(tierArray, partition), (rows) -> {
+						for(String[] row:rows)
+							writer.writeRow(row);
+						rowsWritten[0] += rows.size();
+					}, this::isShutdown, this::setProgress);
+				}
+				return !isShutdown();
+			});
+
+			if(complete) {
+				LogUtil.info(String.format("[TranscriptMapper] Exported %d rows to %s in %d ms", rowsWritten[0],
+						file.getAbsolutePath(), System.currentTimeMillis() - startTime));
+			}
+			super.setStatus(complete ? TaskStatus.FINISHED : TaskStatus.TERMINATED);
+		} catch (IOException e) {
+			super.err = e;
+			super.setStatus(TaskStatus.ERROR);
+		} catch (ExecutionException e) {
+			super.err = e.getCause();
+			super.setStatus(TaskStatus.ERROR);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			super.setStatus(TaskStatus.TERMINATED);
+		}
+	}
+
+	/**
+	 * Enumerate aligned types for a range of key types
+	 *
+	 * @param tierArray
+	 * @param partition
+	 * @return rows for partition, empty if cancelled
+	 */
+	private List<String[]> exportPartition(String[] tierArray, List<String> partition) {
+		final List<String[]> retVal = new ArrayList<>();
+		if(tierArray.length == 1) return retVal;
+
+		final AlignedTypesEnumerator enumerator = new AlignedTypesEnumerator(db);
+		for(String type:partition) {
+			if(isShutdown()) return retVal;
+			enumerator.enumerate(keyTier, type, tierArray, filter, retVal::add);
+		}
+		return retVal;
+	}
+
+}
@@ -64,7 +64,7 @@ public class ImportCSVAction extends TranscriptMapperAction {
 			}
 		}
 
-		final ImportCSVTask importTask = new ImportCSVTask(getView().getUserDb(), new File(filename),
+		final ImportCSVTask importTask = new ImportCSVTask(new File(filename),
 				primaryLang, getView().getEditor().getProject().getUUID());
 		importTask.setName(DESC);
 
@@ -14,17 +14,40 @@
 
 package ca.phon.transcriptMapper;
 
-import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVParser;
 import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
-import ca.phon.util.LanguageEntry;
+import ca.phon.app.log.LogUtil;
+import ca.phon.session.SystemTierType;
+import ca.phon.util.*;
 import ca.phon.worker.PhonTask;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Import aligned types from a csv file.  Rows are streamed from the file, parsed in parallel
+ * and inserted in file order in batches limited by {@link #MEMORY_LIMIT_PROP}.
+ */
 public class ImportCSVTask extends PhonTask {
 
-	private final AlignedTypesDatabase db;
+	/**
+	 * Approximate heap size (in MB) of a batch of rows before it is inserted into the database
+	 */
+	public final static String MEMORY_LIMIT_PROP = ImportCSVTask.class.getName() + ".memoryLimit";
+	public final static int DEFAULT_MEMORY_LIMIT = 64;
+
+	// number of rows sampled and inserted before the remaining rows
+	private final static int SKELETON_SIZE = 4096;
+
+	private final static long PROGRESS_INTERVAL = 1000L;
+
+	// number of records parsed by each parse task
+	private final static int CHUNK_SIZE = 2048;
+
+	// target database, null to use the user database once loaded
+	private AlignedTypesDatabase db;
 
 	private final File csvFile;
 
@@ -32,6 +55,11 @@ public class ImportCSVTask extends PhonTask {
 
 	private final UUID projectId;
 
+	private final String projectIdStr;
+
+	// canonical instances of metadata values shared between rows
+	private final StringPool stringPool = new StringPool();
+
 	public ImportCSVTask(AlignedTypesDatabase db, File csvFile, LanguageEntry importLanguage, UUID projectId) {
 		super();
 
@@ -39,10 +67,18 @@ public class ImportCSVTask extends PhonTask {
 		this.csvFile = csvFile;
 		this.importLanguage = importLanguage;
 		this.projectId = projectId;
+		this.projectIdStr = (projectId != null ? projectId.toString() : null);
 	}
 
-	private CSVReader createReader() throws IOException {
-		return new CSVReader(new InputStreamReader(new FileInputStream(csvFile), "UTF-8"));
+	/**
+	 * Import CSV file into the user database, the database is resolved when the task is run
+	 *
+	 * @param csvFile
+	 * @param importLanguage
+	 * @param projectId
+	 */
+	public ImportCSVTask(File csvFile, LanguageEntry importLanguage, UUID projectId) {
+		this(null, csvFile, importLanguage, projectId);
 	}
 
 	/**
@@ -62,55 +98,327 @@ public class ImportCSVTask extends PhonTask {
 		return (filledTiers < 2);
 	}
 
+	/**
+	 * Create aligned types for the given csv row
+	 *
+	 * @param cols
+	 * @param row
+	 * @return aligned types or null if the alignment is 'empty'
+	 */
+	private Map<String, String> createAlignedTypes(String[] cols, String[] row) {
+		Map<String, String> alignedTypes = new HashMap<>();
+		for (int i = 0; i < cols.length; i++) {
+			String tierName = cols[i];
+			String type = (i < row.length ? row[i] : "");
+			alignedTypes.put(tierName, stringPool.internMetadata(tierName, type));
+		}
+
+		if(checkForEmptyAlignment(alignedTypes)) return null;
+
+		final String currentLang = alignedTypes.get(TypeMapMetadataTier.LANGUAGE.getTierName());
+		if(currentLang == null || currentLang.length() == 0) {
+			if(this.importLanguage != null) {
+				alignedTypes.put(TypeMapMetadataTier.LANGUAGE.getTierName(), this.importLanguage.getId());
+			}
+		}
+
+		if(this.projectId != null) {
+			alignedTypes.put(TypeMapMetadataTier.PROJECT_ID.getTierName(), projectIdStr);
+		}
+		return alignedTypes;
+	}
+
+	/**
+	 * Approximate heap size of aligned types, tier names are shared between rows
+	 */
+	private static long estimateSize(Map<String, String> alignedTypes) {
+		long retVal = 64L;
+		for(String type:alignedTypes.values()) {
+			retVal += 72L + 2L * type.length();
+		}
+		return retVal;
+	}
+
+	/**
+	 * Parsed chunk of csv records
+	 */
+	private static final class ParsedChunk {
+
+		private final List<Map<String, String>> alignedTypesList;
+
+		// index of first row after this chunk
+		private final int endRowIdx;
+
+		// position in file after chunk was read
+		private final long filePosition;
+
+		ParsedChunk(List<Map<String, String>> alignedTypesList, int endRowIdx, long filePosition) {
+			this.alignedTypesList = alignedTypesList;
+			this.endRowIdx = endRowIdx;
+			this.filePosition = filePosition;
+		}
+
+	}
+
+	// marks the end of input in the chunk queue
+	private final static Future<ParsedChunk> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+	private CSVRecordReader createRecordReader(InputStream in) throws IOException {
+		return new CSVRecordReader(new InputStreamReader(in, "UTF-8"));
+	}
+
+	/**
+	 * Checkpoint source, changes to the csv file or import options start a new import
+	 */
+	private String checkpointSource() {
+		return String.format("csv:%s:%d:%d:%s:%s", csvFile.getAbsolutePath(), csvFile.length(), csvFile.lastModified(),
+				(importLanguage != null ? importLanguage.getId() : ""), (projectIdStr != null ? projectIdStr : ""));
+	}
+
 	@Override
 	public void performTask() {
 		super.setStatus(TaskStatus.RUNNING);
 
+		if(db == null)
+			db = UserATDB.getInstance().getATDB();
+		if(db == null) {
+			super.err = new IOException("Unable to load user database");
+			super.setStatus(TaskStatus.ERROR);
+			return;
+		}
+
+		// checkpoints are only recorded for imports into the user database
+		final ImportCheckpoint checkpoint = (UserATDB.getInstance().isUserDatabase(db)
+				? ImportCheckpoint.forSource(checkpointSource()) : null);
+		final int resumeRow = (checkpoint != null ? (int)checkpoint.getPosition(csvFile.length()) : 0);
 		try {
-			final CSVReader csvReader = createReader();
+			final String[] cols;
+			final int[] skeletonRows;
+			final AlignedTypesBulkLoader skeletonLoader;
+			try(final CSVRecordReader recordReader = createRecordReader(new FileInputStream(csvFile))) {
+				final String header = recordReader.readRecord();
+				if(header == null) {
+					super.setStatus(TaskStatus.FINISHED);
+					return;
+				}
+				cols = (new CSVParser()).parseLine(header);
+				for (String tierName : cols) {
+					db.addUserTier(tierName);
+				}
 
-			final String[] cols = csvReader.readNext();
-			for (String tierName : cols) {
-				db.addUserTier(tierName);
+				final String keyTier = (Arrays.asList(cols).contains(SystemTierType.Orthography.getName())
+						? SystemTierType.Orthography.getName() : cols[0]);
+				skeletonLoader = new AlignedTypesBulkLoader(keyTier);
+				if(resumeRow > 0) {
+					// skeleton was inserted before the checkpoint
+					LogUtil.info(String.format("[TranscriptMapper] Resuming import of %s at row %d",
+							csvFile.getAbsolutePath(), resumeRow));
+					skeletonRows = new int[0];
+				} else {
+					skeletonRows = sampleSkeleton(recordReader, cols, skeletonLoader);
+				}
+			}
+			if(isShutdown()) {
+				super.setStatus(TaskStatus.TERMINATED);
+				return;
 			}
+			final String keyTier = skeletonLoader.getKeyTier();
+			try(final AlignedTypesBatch batch = AlignedTypesBatch.begin(db)) {
+				skeletonLoader.load(batch);
 
-			String[] row = null;
-			final List<String[]> allRows = new ArrayList<>();
-			while ((row = csvReader.readNext()) != null) {
-				allRows.add(row);
+				final long startTime = System.currentTimeMillis();
+				final int rowsImported = importRows(cols, keyTier, skeletonRows, resumeRow, checkpoint, batch)
+						+ skeletonRows.length;
+				LogUtil.info(String.format("[TranscriptMapper] Imported %d rows from %s in %d ms", rowsImported,
+						csvFile.getAbsolutePath(), System.currentTimeMillis() - startTime));
 			}
-			Collections.shuffle(allRows);
-
-			for(String[] currentRow:allRows) {
-				Map<String, String> alignedTypes = new HashMap<>();
-				boolean add = true;
-				for (int i = 0; i < cols.length; i++) {
-					String tierName = cols[i];
-					String type = (i < currentRow.length ? currentRow[i] : "");
-					alignedTypes.put(tierName, type);
-				}
 
-				if(checkForEmptyAlignment(alignedTypes)) add = false;
+			super.setStatus(isShutdown() ? TaskStatus.TERMINATED : TaskStatus.FINISHED);
+		} catch (IOException e) {
+			super.err = e;
+			super.setStatus(TaskStatus.ERROR);
+		} catch (ExecutionException e) {
+			super.err = e.getCause();
+			super.setStatus(TaskStatus.ERROR);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			super.setStatus(TaskStatus.TERMINATED);
+		}
+	}
+
+	/**
+	 * Import all rows not included in the skeleton.  Records are read in chunks by a reader
+	 * thread and parsed on a fork-join pool; parsed chunks are inserted in file order by the
+	 * task thread.
+	 *
+	 * @param cols
+	 * @param keyTier
+	 * @param skeletonRows
+	 * @param resumeRow number of rows to skip
+	 * @param checkpoint may be null
+	 * @param batch
+	 * @return number of rows imported
+	 */
+	private int importRows(String[] cols, String keyTier, int[] skeletonRows, int resumeRow, ImportCheckpoint checkpoint,
+	                       AlignedTypesBatch batch)
+			throws IOException, ExecutionException, InterruptedException {
+		final int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		final ForkJoinPool parsePool = new ForkJoinPool(parallelism);
+		final BlockingQueue<Future<ParsedChunk>> chunkQueue = new ArrayBlockingQueue<>(2 * parallelism);
+		final AtomicReference<IOException> readError = new AtomicReference<>();
+
+		final long memoryLimit = PrefHelper.getInt(MEMORY_LIMIT_PROP, DEFAULT_MEMORY_LIMIT) * 1024L * 1024L;
+		final long fileSize = Math.max(1L, csvFile.length());
+		final String taskName = getName();
+		final long startTime = System.currentTimeMillis();
+		long lastReport = startTime;
+		int rowsImported = 0;
+
+		final FileInputStream fin = new FileInputStream(csvFile);
+		final Thread readerThread = new Thread(() -> {
+			try(final CSVRecordReader recordReader = createRecordReader(fin)) {
+				recordReader.readRecord();
+				int rowIdx = 0;
+				while(rowIdx < resumeRow && recordReader.readRecord() != null) {
+					++rowIdx;
+				}
+				List<String> records = null;
+				while(!isShutdown() && !(records = recordReader.readRecords(CHUNK_SIZE)).isEmpty()) {
+					final List<String> chunk = records;
+					final int firstRowIdx = rowIdx;
+					final long filePosition = fin.getChannel().position();
+					chunkQueue.put(parsePool.submit(() -> parseChunk(cols, chunk, firstRowIdx, skeletonRows, filePosition)));
+					rowIdx += chunk.size();
+				}
+			} catch (IOException e) {
+				readError.set(e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				try {
+					chunkQueue.put(END_OF_INPUT);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "TranscriptMapper-csv-reader");
+		readerThread.setDaemon(true);
+		readerThread.start();
 
-				final String currentLang = alignedTypes.get(TypeMapMetadataTier.LANGUAGE.getTierName());
-				if(currentLang == null || currentLang.length() == 0) {
-					if(this.importLanguage != null) {
-						alignedTypes.put(TypeMapMetadataTier.LANGUAGE.getTierName(), this.importLanguage.getId());
+		try {
+			AlignedTypesBulkLoader batchLoader = new AlignedTypesBulkLoader(keyTier);
+			long batchSize = 0L;
+			int lastEndRow = resumeRow;
+			Future<ParsedChunk> chunkFuture = null;
+			while(!isShutdown() && (chunkFuture = chunkQueue.take()) != END_OF_INPUT) {
+				final ParsedChunk chunk = chunkFuture.get();
+				for(Map<String, String> alignedTypes:chunk.alignedTypesList) {
+					batchLoader.add(alignedTypes);
+					batchSize += estimateSize(alignedTypes);
+					if(batchSize >= memoryLimit) {
+						batchLoader.load(batch);
+						batchSize = 0L;
 					}
 				}
+				rowsImported += chunk.alignedTypesList.size();
+				lastEndRow = chunk.endRowIdx;
 
-				if(this.projectId != null) {
-					alignedTypes.put(TypeMapMetadataTier.PROJECT_ID.getTierName(), projectId.toString());
+				if(checkpoint != null && checkpoint.isDue()) {
+					batchLoader.load(batch);
+					batchSize = 0L;
+					checkpoint.save(lastEndRow, csvFile.length());
 				}
 
-				if(add)
-					db.addAlignedTypes(alignedTypes);
+				final long now = System.currentTimeMillis();
+				if(now - lastReport >= PROGRESS_INTERVAL) {
+					lastReport = now;
+					final long rowsPerSecond = (1000L * rowsImported) / Math.max(1L, now - startTime);
+					super.setProgress(Math.min(1.0f, (float)chunk.filePosition / (float)fileSize));
+					super.setName(String.format("%s (%d rows/s)", taskName, rowsPerSecond));
+				}
 			}
+			batchLoader.load(batch);
+			if(readError.get() != null)
+				throw readError.get();
 
-			super.setStatus(TaskStatus.FINISHED);
-		} catch (IOException e) {
-			super.err = e;
-			super.setStatus(TaskStatus.ERROR);
+			if(checkpoint != null) {
+				if(isShutdown())
+					checkpoint.save(lastEndRow, csvFile.length());
+				else
+					checkpoint.delete();
+			}
+		} finally {
+			super.setName(taskName);
+			readerThread.interrupt();
+			parsePool.shutdownNow();
+		}
+		return rowsImported;
+	}
+
+	/**
+	 * Parse and validate a chunk of records, called from the parse pool.  Each call uses its
+	 * own parser as {@link CSVParser} is not thread safe.
+	 */
+	private ParsedChunk parseChunk(String[] cols, List<String> records, int firstRowIdx, int[] skeletonRows,
+	                               long filePosition) throws IOException {
+		final CSVParser parser = new CSVParser();
+		final List<Map<String, String>> alignedTypesList = new ArrayList<>(records.size());
+		for(int i = 0; i < records.size(); i++) {
+			if(Arrays.binarySearch(skeletonRows, firstRowIdx + i) >= 0) continue;
+			final Map<String, String> alignedTypes = createAlignedTypes(cols, parser.parseLine(records.get(i)));
+			if(alignedTypes != null)
+				alignedTypesList.add(alignedTypes);
+		}
+		return new ParsedChunk(alignedTypesList, firstRowIdx + records.size(), filePosition);
+	}
+
+	/**
+	 * Read a uniform random sample of rows (reservoir sampling) to insert before the
+	 * remaining rows.  Inserting the sample in balanced order gives the type tree a balanced
+	 * skeleton for the key tier so that later batches do not degrade it, even when the
+	 * csv file is sorted.  Only sampled records are parsed.
+	 *
+	 * @param recordReader
+	 * @param cols
+	 * @param skeletonLoader
+	 * @return sorted row indices of sampled rows
+	 * @throws IOException
+	 */
+	private int[] sampleSkeleton(CSVRecordReader recordReader, String[] cols, AlignedTypesBulkLoader skeletonLoader) throws IOException {
+		final Random random = new Random();
+		final int[] sampleRows = new int[SKELETON_SIZE];
+		final List<String> sample = new ArrayList<>();
+
+		int rowIdx = 0;
+		String record = null;
+		while ((record = recordReader.readRecord()) != null && !isShutdown()) {
+			final int idx = rowIdx++;
+			final int sampleIdx = (sample.size() < SKELETON_SIZE ? sample.size() : random.nextInt(idx + 1));
+			if(sampleIdx >= SKELETON_SIZE) continue;
+
+			if(sampleIdx == sample.size()) {
+				sample.add(record);
+			} else {
+				sample.set(sampleIdx, record);
+			}
+			sampleRows[sampleIdx] = idx;
+		}
+
+		final Integer[] order = new Integer[sample.size()];
+		for(int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, Comparator.comparingInt((i) -> sampleRows[i]));
+		final int[] retVal = new int[order.length];
+		final List<String> sortedSample = new ArrayList<>(order.length);
+		for(int i = 0; i < order.length; i++) {
+			retVal[i] = sampleRows[order[i]];
+			sortedSample.add(sample.get(order[i]));
+		}
+		final CSVParser parser = new CSVParser();
+		for(String sampleRecord:sortedSample) {
+			final Map<String, String> alignedTypes = createAlignedTypes(cols, parser.parseLine(sampleRecord));
+			if(alignedTypes != null)
+				skeletonLoader.add(alignedTypes);
 		}
+		return retVal;
 	}
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.app.log.LogUtil;
+import ca.phon.util.PrefHelper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable progress marker for long running imports into the user database.  A checkpoint
+ * records how far an import has progressed (e.g., number of csv rows or dictionary keys
+ * processed) after the user database has been saved, allowing an interrupted import of the
+ * same source to resume from that position.
+ */
+final class ImportCheckpoint {
+
+	private final static String CHECKPOINT_FOLDER = "transcriptMapper/checkpoints";
+
+	private final static String CHECKPOINT_EXT = ".checkpoint";
+
+	private final static String SOURCE_PROP = "source";
+
+	private final static String POSITION_PROP = "position";
+
+	private final static String TOTAL_PROP = "total";
+
+	/**
+	 * Minimum time (in seconds) between checkpoints
+	 */
+	public final static String INTERVAL_PROP = ImportCheckpoint.class.getName() + ".interval";
+	public final static int DEFAULT_INTERVAL = 300;
+
+	private final String source;
+
+	private final File file;
+
+	private long lastSaved = System.currentTimeMillis();
+
+	/**
+	 * Return checkpoint for the given import source
+	 *
+	 * @param source unique description of import source and target
+	 * @return checkpoint
+	 */
+	public static ImportCheckpoint forSource(String source) {
+		final String filename = UUID.nameUUIDFromBytes(source.getBytes(StandardCharsets.UTF_8)) + CHECKPOINT_EXT;
+		return new ImportCheckpoint(source, new File(new File(PrefHelper.getUserDataFolder(), CHECKPOINT_FOLDER), filename));
+	}
+
+	private ImportCheckpoint(String source, File file) {
+		this.source = source;
+		this.file = file;
+	}
+
+	public String getSource() {
+		return this.source;
+	}
+
+	private Properties loadProperties() {
+		final Properties props = new Properties();
+		if(file.exists()) {
+			try(final InputStream in = new FileInputStream(file)) {
+				props.load(in);
+			} catch (IOException e) {
+				LogUtil.warning("[TranscriptMapper] Unable to read checkpoint " + file.getAbsolutePath(), e);
+				props.clear();
+			}
+		}
+		return source.equals(props.getProperty(SOURCE_PROP)) ? props : new Properties();
+	}
+
+	/**
+	 * Return position recorded in checkpoint
+	 *
+	 * @param total expected total, the checkpoint is ignored if the recorded total differs
+	 *              (use -1 if unknown)
+	 * @return recorded position or 0 if no checkpoint exists
+	 */
+	public long getPosition(long total) {
+		final Properties props = loadProperties();
+		try {
+			final long position = Long.parseLong(props.getProperty(POSITION_PROP, "0"));
+			final long recordedTotal = Long.parseLong(props.getProperty(TOTAL_PROP, "-1"));
+			return (recordedTotal == total ? position : 0L);
+		} catch (NumberFormatException e) {
+			return 0L;
+		}
+	}
+
+	/**
+	 * Has the checkpoint interval elapsed since the last checkpoint was saved
+	 *
+	 * @return true if a new checkpoint should be saved
+	 */
+	public boolean isDue() {
+		final long interval = TimeUnit.SECONDS.toMillis(PrefHelper.getInt(INTERVAL_PROP, DEFAULT_INTERVAL));
+		return System.currentTimeMillis() - lastSaved >= interval;
+	}
+
+	/**
+	 * Save user database and record position.
+	 *
+	 * @param position
+	 * @param total
+	 * @throws IOException
+	 */
+	public void save(long position, long total) throws IOException {
+		UserATDB.getInstance().saveDb();
+
+		final Properties props = new Properties();
+		props.setProperty(SOURCE_PROP, source);
+		props.setProperty(POSITION_PROP, Long.toString(position));
+		props.setProperty(TOTAL_PROP, Long.toString(total));
+
+		final Path folder = file.getParentFile().toPath();
+		Files.createDirectories(folder);
+		final Path tmpPath = Files.createTempFile(folder, ".checkpoint-", CHECKPOINT_EXT);
+		try {
+			try(final FileOutputStream out = new FileOutputStream(tmpPath.toFile())) {
+				props.store(out, "Transcript mapper import checkpoint");
+			}
+			SnapshotWriter.replaceFile(tmpPath, file.toPath());
+		} finally {
+			Files.deleteIfExists(tmpPath);
+		}
+		lastSaved = System.currentTimeMillis();
+	}
+
+	/**
+	 * Remove checkpoint, called when the import has completed
+	 */
+	public void delete() {
+		if(file.exists() && !file.delete())
+			LogUtil.warning("[TranscriptMapper] Unable to remove checkpoint " + file.getAbsolutePath());
+	}
+
+}
@@ -65,7 +65,7 @@ public class ImportDatabaseAction extends TranscriptMapperAction {
 	}
 
 	private void importDatabaseFromFile(String filename) {
-		final ImportDatabaseTask importTask = new ImportDatabaseTask(getView().getUserDb(), new File(filename));
+		final ImportDatabaseTask importTask = new ImportDatabaseTask(new File(filename));
 		importTask.setName(DESC);
 
 		getView().getEditor().getStatusBar().watchTask(importTask);
@@ -14,17 +14,40 @@
 
 package ca.phon.transcriptMapper;
 
-import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
+import ca.phon.alignedTypesDatabase.*;
+import ca.phon.app.log.LogUtil;
+import ca.phon.session.SystemTierType;
+import ca.phon.util.Tuple;
 import ca.phon.worker.PhonTask;
 
-import java.io.File;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * Merge aligned types from another database file into the given database.
+ *
+ * Aligned types are enumerated from the source database by worker threads, one key type at
+ * a time.  Workers filter out tuples already present in the target database and hand batches
+ * of new tuples to the task thread, which is the only thread writing to the target database.
+ */
 public class ImportDatabaseTask extends PhonTask {
 
-	private final AlignedTypesDatabase db;
+	private final static int BATCH_SIZE = 1000;
+
+	private final static int QUEUE_CAPACITY = 16;
+
+	// target database, null to use the user database once loaded
+	private AlignedTypesDatabase db;
 
 	private final File importFile;
 
+	// workers read from the target database while the task thread writes
+	private final ReadWriteLock dbLock = new ReentrantReadWriteLock();
+
 	public ImportDatabaseTask(AlignedTypesDatabase db, File importFile) {
 		super();
 
@@ -32,9 +55,177 @@ public class ImportDatabaseTask extends PhonTask {
 		this.importFile = importFile;
 	}
 
+	/**
+	 * Import database file into the user database, the database is resolved when the task is run
+	 *
+	 * @param importFile
+	 */
+	public ImportDatabaseTask(File importFile) {
+		this(null, importFile);
+	}
+
 	@Override
 	public void performTask() {
+		super.setStatus(TaskStatus.RUNNING);
+
+		if(db == null)
+			db = UserATDB.getInstance().getATDB();
+		if(db == null) {
+			super.err = new IOException("Unable to load user database");
+			super.setStatus(TaskStatus.ERROR);
+			return;
+		}
+
+		try(final AlignedTypesBatch batch = AlignedTypesBatch.begin(db)) {
+			final long startTime = System.currentTimeMillis();
+			final int numAdded = mergeDatabase(AlignedTypesDatabaseIO.readFromFile(importFile), batch);
+			LogUtil.info(String.format("[TranscriptMapper] Imported %d aligned types from %s in %d ms",
+					numAdded, importFile.getAbsolutePath(), System.currentTimeMillis() - startTime));
+
+			super.setStatus(isShutdown() ? TaskStatus.TERMINATED : TaskStatus.FINISHED);
+		} catch (IOException | ExecutionException e) {
+			super.err = (e instanceof ExecutionException ? e.getCause() : e);
+			super.setStatus(TaskStatus.ERROR);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			super.setStatus(TaskStatus.TERMINATED);
+		}
+	}
+
+	private String selectKeyTier(Collection<String> tierNames) {
+		if(tierNames.contains(SystemTierType.Orthography.getName()))
+			return SystemTierType.Orthography.getName();
+		else
+			return tierNames.iterator().next();
+	}
+
+	/**
+	 * Merge aligned types from importDb into the target database
+	 *
+	 * @param importDb
+	 * @param batch
+	 * @return number of aligned types added
+	 * @throws InterruptedException
+	 * @throws ExecutionException if a worker failed
+	 */
+	private int mergeDatabase(AlignedTypesDatabase importDb, AlignedTypesBatch batch) throws InterruptedException, ExecutionException {
+		final List<String> tierNames = new ArrayList<>(importDb.tierNames());
+		if(tierNames.isEmpty()) return 0;
+		for(String tierName:tierNames) {
+			if(!db.tierNames().contains(tierName))
+				db.addUserTier(tierName);
+		}
+
+		final String keyTier = selectKeyTier(tierNames);
+		final List<String> keyTypes = new ArrayList<>(importDb.typesForTier(keyTier));
+		if(keyTypes.isEmpty()) return 0;
+
+		final int numWorkers = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, keyTypes.size()));
+		final BlockingQueue<List<Tuple<String[], String[]>>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		final AtomicInteger nextType = new AtomicInteger(0);
+		final AtomicInteger typesProcessed = new AtomicInteger(0);
+		final CountDownLatch workersDone = new CountDownLatch(numWorkers);
+		final List<Future<?>> workerFutures = new ArrayList<>();
+
+		final ExecutorService workers = Executors.newFixedThreadPool(numWorkers, (r) -> {
+			final Thread thread = new Thread(r, "TranscriptMapper-import");
+			thread.setDaemon(true);
+			return thread;
+		});
+		int numAdded = 0;
+		try {
+			for(int i = 0; i < numWorkers; i++) {
+				workerFutures.add(workers.submit(() -> {
+					try {
+						enumerateAlignedTypes(importDb, keyTier, tierNames, keyTypes, nextType, typesProcessed, queue);
+					} finally {
+						workersDone.countDown();
+					}
+				}));
+			}
+
+			while(!isShutdown()) {
+				final List<Tuple<String[], String[]>> tuples = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(tuples == null) {
+					if(workersDone.getCount() == 0 && queue.isEmpty()) break;
+					continue;
+				}
+
+				dbLock.writeLock().lock();
+				try {
+					for(Tuple<String[], String[]> alignedTypes:tuples) {
+						batch.addAlignedTypes(alignedTypes.getObj1(), alignedTypes.getObj2());
+					}
+				} finally {
+					dbLock.writeLock().unlock();
+				}
+				numAdded += tuples.size();
+				super.setProgress((float)typesProcessed.get() / (float)keyTypes.size());
+			}
+
+			if(!isShutdown()) {
+				for(Future<?> workerFuture:workerFutures)
+					workerFuture.get();
+			}
+		} finally {
+			workers.shutdownNow();
+			workers.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		return numAdded;
+	}
+
+	/**
+	 * Worker loop, takes key types from the shared list until all types have been processed
+	 */
+	private void enumerateAlignedTypes(AlignedTypesDatabase importDb, String keyTier, List<String> tierNames,
+	                                   List<String> keyTypes, AtomicInteger nextType, AtomicInteger typesProcessed,
+	                                   BlockingQueue<List<Tuple<String[], String[]>>> queue) {
+		try {
+			final AlignedTypesEnumerator enumerator = new AlignedTypesEnumerator(importDb);
+			List<Tuple<String[], String[]>> batch = new ArrayList<>();
+			int typeIdx = 0;
+			while(!isShutdown() && (typeIdx = nextType.getAndIncrement()) < keyTypes.size()) {
+				final String keyType = keyTypes.get(typeIdx);
+				final Map<String, String[]> alignedTypes = importDb.alignedTypesForTier(keyTier, keyType, tierNames);
+
+				// only tiers with aligned types for this key type are included
+				final List<String> tiers = new ArrayList<>();
+				tiers.add(keyTier);
+				for(String tierName:tierNames) {
+					final String[] tierOpts = alignedTypes.get(tierName);
+					if(!tierName.equals(keyTier) && tierOpts != null && tierOpts.length > 0)
+						tiers.add(tierName);
+				}
+				if(tiers.size() > 1) {
+					final String[] tierArray = tiers.toArray(new String[0]);
+					final String[][] typeOpts = new String[tierArray.length][];
+					typeOpts[0] = new String[]{keyType};
+					for(int i = 1; i < tierArray.length; i++)
+						typeOpts[i] = alignedTypes.get(tierArray[i]);
+
+					final List<String[]> rows = enumerator.enumerate(tierArray, typeOpts);
+					dbLock.readLock().lock();
+					try {
+						for(String[] row:rows) {
+							if(!db.hasAlignedTypes(tierArray, row))
+								batch.add(new Tuple<>(tierArray, row));
+						}
+					} finally {
+						dbLock.readLock().unlock();
+					}
+				}
+				typesProcessed.incrementAndGet();
 
+				if(batch.size() >= BATCH_SIZE) {
+					queue.put(batch);
+					batch = new ArrayList<>();
+				}
+			}
+			if(!batch.isEmpty())
+				queue.put(batch);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 }
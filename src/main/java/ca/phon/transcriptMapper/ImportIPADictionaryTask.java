@@ -15,16 +15,31 @@
 package ca.phon.transcriptMapper;
 
 import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
+import ca.phon.app.log.LogUtil;
 import ca.phon.ipadictionary.*;
 import ca.phon.ipadictionary.spi.OrthoKeyIterator;
 import ca.phon.session.SystemTierType;
 import ca.phon.util.Language;
 import ca.phon.worker.PhonTask;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
 
+/**
+ * Import IPA dictionaries for a language.  Dictionary keys are enumerated concurrently,
+ * sorted and then looked up in parallel in balanced order; entries are inserted in batches.
+ */
 public class ImportIPADictionaryTask extends PhonTask {
 
+	// number of ortho keys looked up before entries are inserted
+	private final static int BATCH_SIZE = 4096;
+
+	private final static int MAX_THREADS = 8;
+
+	// target database, null to import into the user database language shard
 	private final AlignedTypesDatabase db;
 
 	private final UUID projectId;
@@ -39,45 +54,185 @@ public class ImportIPADictionaryTask extends PhonTask {
 		this.projectId = projectId;
 	}
 
+	/**
+	 * Import dictionary into the user database shard for the dictionary language
+	 *
+	 * @param projectId
+	 * @param dictLang
+	 */
+	public ImportIPADictionaryTask(UUID projectId, Language dictLang) {
+		this(null, projectId, dictLang);
+	}
+
 	@Override
 	public void performTask() {
 		super.setStatus(TaskStatus.RUNNING);
 
-		// entries will be given in alphabetical order, we need to collect
-		// and randomize them for efficiency
-		final List<Map<String, String>> alignedTypesList = new ArrayList<>();
+		final AlignedTypesDatabase db = (this.db != null ? this.db
+				: UserATDB.getInstance().getShardATDB(dictLang.getPrimaryLanguage().getId()));
+		if(db == null) {
+			super.err = new IOException("Unable to load aligned types database for " + dictLang);
+			super.setStatus(TaskStatus.ERROR);
+			return;
+		}
 
 		final List<IPADictionary> dicts = IPADictionaryLibrary.getInstance().dictionariesForLanguage(dictLang);
-		for(IPADictionary dict:dicts) {
-			OrthoKeyIterator keyItr = dict.getExtension(OrthoKeyIterator.class);
-			if(keyItr != null) {
-				final Iterator<String> orthoItr = keyItr.iterator();
-				while(orthoItr.hasNext()) {
-					final String ortho = orthoItr.next();
-					final String[] opts = dict.lookup(ortho);
-
-					for(String opt:opts) {
-						final Map<String, String> alignedTypes = new LinkedHashMap<>();
-						alignedTypes.put(SystemTierType.Orthography.getName(), ortho);
-						alignedTypes.put(SystemTierType.IPATarget.getName(), opt);
-						alignedTypes.put(SystemTierType.IPAActual.getName(), opt);
-						alignedTypes.put(TypeMapMetadataTier.LANGUAGE.getTierName(), dictLang.getPrimaryLanguage().getId());
-						if(projectId != null)
-							alignedTypes.put(TypeMapMetadataTier.PROJECT_ID.getTierName(), projectId.toString());
-
-						alignedTypesList.add(alignedTypes);
+		final int parallelism = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS));
+		final ExecutorService executor = Executors.newFixedThreadPool(parallelism, (r) -> {
+			final Thread thread = new Thread(r, "TranscriptMapper-dictionary-import");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			final long startTime = System.currentTimeMillis();
+
+			// enumerate keys of all dictionaries concurrently
+			final List<Callable<String[]>> keyTasks = new ArrayList<>();
+			for(IPADictionary dict:dicts) {
+				keyTasks.add(() -> orthoKeys(dict));
+			}
+			final List<String[]> dictKeys = new ArrayList<>();
+			for(Future<String[]> future:executor.invokeAll(keyTasks)) {
+				dictKeys.add(future.get());
+			}
+			if(isShutdown()) {
+				// keys are incomplete, no checkpoint is recorded
+				super.setStatus(TaskStatus.TERMINATED);
+				return;
+			}
+			final String[] keys = dictKeys.stream().flatMap(Arrays::stream).distinct().sorted().toArray(String[]::new);
+
+			// keys are sorted, insert in balanced order
+			final int[] order = AlignedTypesBulkLoader.balancedOrder(keys.length);
+			final String[] tierNames = (projectId != null
+					? new String[]{ SystemTierType.Orthography.getName(), SystemTierType.IPATarget.getName(),
+						SystemTierType.IPAActual.getName(), TypeMapMetadataTier.LANGUAGE.getTierName(),
+						TypeMapMetadataTier.PROJECT_ID.getTierName() }
+					: new String[]{ SystemTierType.Orthography.getName(), SystemTierType.IPATarget.getName(),
+						SystemTierType.IPAActual.getName(), TypeMapMetadataTier.LANGUAGE.getTierName() });
+			final String langId = dictLang.getPrimaryLanguage().getId();
+			final String projectIdStr = (projectId != null ? projectId.toString() : null);
+
+			// checkpoints are only recorded for imports into the user database
+			final ImportCheckpoint checkpoint = (UserATDB.getInstance().isUserDatabase(db)
+					? ImportCheckpoint.forSource(checkpointSource(dicts, langId, projectIdStr, keys)) : null);
+			final int resumeIdx = (checkpoint != null ? (int)checkpoint.getPosition(order.length) : 0);
+			if(resumeIdx > 0) {
+				LogUtil.info(String.format("[TranscriptMapper] Resuming import for %s at key %d of %d",
+						dictLang, resumeIdx, order.length));
+			}
+
+			int numEntries = 0;
+			int lastBatchEnd = resumeIdx;
+			try(final AlignedTypesBatch batch = AlignedTypesBatch.begin(db)) {
+				for(int batchStart = resumeIdx; batchStart < order.length && !isShutdown(); batchStart += BATCH_SIZE) {
+					final int batchEnd = Math.min(order.length, batchStart + BATCH_SIZE);
+
+					// lookups for batch are split evenly between threads, results are kept in order
+					final List<Callable<List<String[]>>> lookupTasks = new ArrayList<>();
+					final int sliceSize = Math.max(1, (batchEnd - batchStart + parallelism - 1) / parallelism);
+					for(int sliceStart = batchStart; sliceStart < batchEnd; sliceStart += sliceSize) {
+						final int from = sliceStart;
+						final int to = Math.min(batchEnd, sliceStart + sliceSize);
+						lookupTasks.add(() -> {
+							final List<String[]> entries = new ArrayList<>();
+							for(int i = from; i < to; i++) {
+								lookupEntries(dicts, dictKeys, keys[order[i]], langId, projectIdStr, entries);
+							}
+							return entries;
+						});
+					}
+					for(Future<List<String[]>> future:executor.invokeAll(lookupTasks)) {
+						for(String[] types:future.get()) {
+							if(batch.addAlignedTypesIfAbsent(tierNames, types))
+								++numEntries;
+						}
 					}
+					lastBatchEnd = batchEnd;
+					super.setProgress((float)batchEnd / (float)order.length);
+
+					if(checkpoint != null && checkpoint.isDue())
+						checkpoint.save(batchEnd, order.length);
 				}
 			}
+
+			if(checkpoint != null) {
+				if(isShutdown())
+					checkpoint.save(lastBatchEnd, order.length);
+				else
+					checkpoint.delete();
+			}
+
+			LogUtil.info(String.format("[TranscriptMapper] Imported %d entries for %s in %d ms", numEntries,
+					dictLang, System.currentTimeMillis() - startTime));
+			super.setStatus(isShutdown() ? TaskStatus.TERMINATED : TaskStatus.FINISHED);
+		} catch (ExecutionException e) {
+			super.err = e.getCause();
+			super.setStatus(TaskStatus.ERROR);
+		} catch (IOException e) {
+			super.err = e;
+			super.setStatus(TaskStatus.ERROR);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			super.setStatus(TaskStatus.TERMINATED);
+		} finally {
+			executor.shutdownNow();
 		}
+	}
 
-		// randomize entries
-		Collections.shuffle(alignedTypesList);
-		for(Map<String, String> alignedTypes:alignedTypesList) {
-			db.addAlignedTypes(alignedTypes);
+	/**
+	 * Checkpoint source, a different set of dictionaries, dictionary contents (keys) or
+	 * import options start a new import
+	 */
+	private String checkpointSource(List<IPADictionary> dicts, String langId, String projectIdStr, String[] keys) {
+		final StringBuilder builder = new StringBuilder("dict:").append(langId);
+		builder.append(':').append(projectIdStr != null ? projectIdStr : "");
+		for(IPADictionary dict:dicts) {
+			builder.append(':').append(dict.getName());
+		}
+		final CRC32 crc = new CRC32();
+		for(String key:keys) {
+			crc.update(key.getBytes(StandardCharsets.UTF_8));
+			crc.update('\n');
 		}
+		builder.append(':').append(keys.length).append(':').append(Long.toHexString(crc.getValue()));
+		return builder.toString();
+	}
+
+	/**
+	 * Return sorted ortho keys for the given dictionary
+	 *
+	 * @param dict
+	 * @return sorted array of keys, empty if the dictionary cannot be enumerated
+	 */
+	private String[] orthoKeys(IPADictionary dict) {
+		final OrthoKeyIterator keyItr = dict.getExtension(OrthoKeyIterator.class);
+		if(keyItr == null) return new String[0];
+		final List<String> keys = new ArrayList<>();
+		final Iterator<String> orthoItr = keyItr.iterator();
+		while(orthoItr.hasNext() && !isShutdown()) {
+			keys.add(orthoItr.next());
+		}
+		final String[] retVal = keys.toArray(new String[0]);
+		Arrays.sort(retVal);
+		return retVal;
+	}
 
-		super.setStatus(TaskStatus.FINISHED);
+	/**
+	 * Lookup ortho in all dictionaries which contain the key and add entries
+	 */
+	private void lookupEntries(List<IPADictionary> dicts, List<String[]> dictKeys, String ortho,
+	                           String langId, String projectIdStr, List<String[]> entries) {
+		for(int i = 0; i < dicts.size(); i++) {
+			if(Arrays.binarySearch(dictKeys.get(i), ortho) < 0) continue;
+			final String[] opts = dicts.get(i).lookup(ortho);
+			if(opts == null) continue;
+			for(String opt:opts) {
+				entries.add(projectIdStr != null
+						? new String[]{ ortho, opt, opt, langId, projectIdStr }
+						: new String[]{ ortho, opt, opt, langId });
+			}
+		}
 	}
 
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
+import ca.phon.app.log.LogUtil;
+import ca.phon.session.SystemTierType;
+import ca.phon.util.LanguageEntry;
+import ca.phon.worker.PhonTask;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Import aligned types from a binary {@link TypeMapFile}.  Rows are read one block at a time
+ * and inserted using an {@link AlignedTypesBulkLoader}.  Rows are handled as in
+ * {@link ImportCSVTask}: empty alignments are skipped and language and project metadata
+ * are added.
+ */
+public class ImportTypeMapTask extends PhonTask {
+
+	// number of rows collected before insertion
+	private final static int LOAD_SIZE = 65536;
+
+	// target database, null to use the user database once loaded
+	private AlignedTypesDatabase db;
+
+	private final File file;
+
+	private final LanguageEntry importLanguage;
+
+	private final UUID projectId;
+
+	private final String projectIdStr;
+
+	private final StringPool stringPool = new StringPool();
+
+	public ImportTypeMapTask(AlignedTypesDatabase db, File file, LanguageEntry importLanguage, UUID projectId) {
+		super();
+
+		this.db = db;
+		this.file = file;
+		this.importLanguage = importLanguage;
+		this.projectId = projectId;
+		this.projectIdStr = (projectId != null ? projectId.toString() : null);
+	}
+
+	/**
+	 * Import type map file into the user database, the database is resolved when the task is run
+	 *
+	 * @param file
+	 * @param importLanguage
+	 * @param projectId
+	 */
+	public ImportTypeMapTask(File file, LanguageEntry importLanguage, UUID projectId) {
+		this(null, file, importLanguage, projectId);
+	}
+
+	/**
+	 * Create aligned types for the given row
+	 *
+	 * @param cols
+	 * @param row
+	 * @return aligned types or null if fewer than two tiers have a value
+	 */
+	private Map<String, String> createAlignedTypes(String[] cols, String[] row) {
+		final Map<String, String> alignedTypes = new HashMap<>();
+		int filledTiers = 0;
+		for(int i = 0; i < cols.length; i++) {
+			final String type = row[i];
+			alignedTypes.put(cols[i], stringPool.internMetadata(cols[i], type));
+			if(type.trim().length() > 0 && !"*".equals(type))
+				++filledTiers;
+		}
+		if(filledTiers < 2) return null;
+
+		final String currentLang = alignedTypes.get(TypeMapMetadataTier.LANGUAGE.getTierName());
+		if((currentLang == null || currentLang.length() == 0) && this.importLanguage != null) {
+			alignedTypes.put(TypeMapMetadataTier.LANGUAGE.getTierName(), this.importLanguage.getId());
+		}
+		if(this.projectId != null) {
+			alignedTypes.put(TypeMapMetadataTier.PROJECT_ID.getTierName(), projectIdStr);
+		}
+		return alignedTypes;
+	}
+
+	@Override
+	public void performTask() {
+		super.setStatus(TaskStatus.RUNNING);
+
+		if(db == null)
+			db = UserATDB.getInstance().getATDB();
+		if(db == null) {
+			super.err = new IOException("Unable to load user database");
+			super.setStatus(TaskStatus.ERROR);
+			return;
+		}
+
+		try(final TypeMapFile.Reader reader = new TypeMapFile.Reader(file);
+		    final AlignedTypesBatch batch = AlignedTypesBatch.begin(db)) {
+			final long startTime = System.currentTimeMillis();
+			final String[] cols = reader.getColumns();
+			for(int i = 0; i < cols.length; i++) {
+				cols[i] = stringPool.intern(cols[i]);
+				db.addUserTier(cols[i]);
+			}
+			final String keyTier = (Arrays.asList(cols).contains(SystemTierType.Orthography.getName())
+					? SystemTierType.Orthography.getName() : cols[0]);
+
+			final AlignedTypesBulkLoader loader = new AlignedTypesBulkLoader(keyTier);
+			final long fileSize = Math.max(1L, file.length());
+			int rowsImported = 0;
+			List<String[]> rows = null;
+			while(!isShutdown() && (rows = reader.readBlock()) != null) {
+				for(String[] row:rows) {
+					final Map<String, String> alignedTypes = createAlignedTypes(cols, row);
+					if(alignedTypes == null) continue;
+					loader.add(alignedTypes);
+					++rowsImported;
+				}
+				if(loader.size() >= LOAD_SIZE)
+					loader.load(batch);
+				super.setProgress(Math.min(1.0f, (float)reader.getPosition() / (float)fileSize));
+			}
+			loader.load(batch);
+
+			LogUtil.info(String.format("[TranscriptMapper] Imported %d rows from %s in %d ms", rowsImported,
+					file.getAbsolutePath(), System.currentTimeMillis() - startTime));
+			super.setStatus(isShutdown() ? TaskStatus.TERMINATED : TaskStatus.FINISHED);
+		} catch (IOException e) {
+			super.err = e;
+			super.setStatus(TaskStatus.ERROR);
+		}
+	}
+
+}
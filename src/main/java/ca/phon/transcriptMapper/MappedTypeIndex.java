@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Read-only, memory-mapped index of an {@link AlignedTypesDatabase} snapshot.  The index is
+ * written next to the snapshot and can be queried in place without loading the database,
+ * allowing lookups during startup regardless of database size.
+ *
+ * File layout (all values big-endian, positions are absolute file offsets):
+ * <pre>
+ * header     magic(8) version(4) snapshotSize(8) snapshotModified(8)
+ *            stringCount(4) stringDataPos(4) stringOffsetsPos(4)
+ *            linksPos(4) tierCount(4) tierTablePos(4)
+ * strings    UTF-8 data for all tier names and types, sorted
+ * offsets    int[stringCount+1] offsets into string data
+ * links      (tierIdx(4), typeId(4)) for each aligned type, sorted per entry
+ * tier table (nameId(4), entriesPos(4), entryCount(4)) for each tier
+ * entries    (typeId(4), firstLink(4), linkCount(4)) for each type in tier, sorted by typeId
+ * </pre>
+ * Strings are sorted so that string ids may be located using a binary search.
+ */
+public final class MappedTypeIndex {
+
+	private final static long MAGIC = 0x4154444249445831L; // 'ATDBIDX1'
+
+	private final static int VERSION = 1;
+
+	private final static int HEADER_SIZE = 52;
+
+	private final static int TIER_RECORD_SIZE = 12;
+
+	private final static int ENTRY_RECORD_SIZE = 12;
+
+	private final static int LINK_RECORD_SIZE = 8;
+
+	private final MappedByteBuffer buffer;
+
+	private final int stringCount;
+
+	private final int stringDataPos;
+
+	private final int stringOffsetsPos;
+
+	private final int linksPos;
+
+	private final String[] tierNames;
+
+	private final int[] tierEntriesPos;
+
+	private final int[] tierEntryCount;
+
+	private MappedTypeIndex(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+
+		this.stringCount = buffer.getInt(28);
+		this.stringDataPos = buffer.getInt(32);
+		this.stringOffsetsPos = buffer.getInt(36);
+		this.linksPos = buffer.getInt(40);
+		final int tierCount = buffer.getInt(44);
+		final int tierTablePos = buffer.getInt(48);
+
+		this.tierNames = new String[tierCount];
+		this.tierEntriesPos = new int[tierCount];
+		this.tierEntryCount = new int[tierCount];
+		for(int i = 0; i < tierCount; i++) {
+			final int pos = tierTablePos + (i * TIER_RECORD_SIZE);
+			this.tierNames[i] = string(buffer.getInt(pos));
+			this.tierEntriesPos[i] = buffer.getInt(pos + 4);
+			this.tierEntryCount[i] = buffer.getInt(pos + 8);
+		}
+	}
+
+	/**
+	 * Check if the index file exists and matches the given snapshot.  Only the header is
+	 * read, the index is not mapped.
+	 *
+	 * @param indexFile
+	 * @param snapshotFile snapshot the index was created from
+	 * @return true if the index may be opened
+	 * @throws IOException
+	 */
+	public static boolean isCurrent(File indexFile, File snapshotFile) throws IOException {
+		if(!indexFile.exists() || !snapshotFile.exists()) return false;
+
+		try(final FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			if(channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) return false;
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while(header.hasRemaining()) {
+				if(channel.read(header) < 0) return false;
+			}
+			return header.getLong(0) == MAGIC && header.getInt(8) == VERSION
+					&& header.getLong(12) == snapshotFile.length() && header.getLong(20) == snapshotFile.lastModified();
+		}
+	}
+
+	/**
+	 * Open index file.  The file remains mapped until the returned index is no longer referenced.
+	 *
+	 * @param indexFile
+	 * @param snapshotFile snapshot the index was created from
+	 * @return index or <code>null</code> if the index does not exist or is out of date
+	 * @throws IOException
+	 */
+	public static MappedTypeIndex open(File indexFile, File snapshotFile) throws IOException {
+		if(!isCurrent(indexFile, snapshotFile)) return null;
+
+		try(final FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+			return new MappedTypeIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Write index for given database.
+	 *
+	 * @param db
+	 * @param indexFile
+	 * @param snapshotFile snapshot of db which has already been written to disk
+	 * @throws IOException
+	 */
+	public static void write(AlignedTypesDatabase db, File indexFile, File snapshotFile) throws IOException {
+		final List<String> tierList = new ArrayList<>(db.tierNames());
+
+		final Map<String, Collection<String>> tierTypes = new LinkedHashMap<>();
+		final SortedSet<String> allStrings = new TreeSet<>(tierList);
+		for(String tierName:tierList) {
+			final Collection<String> types = db.typesForTier(tierName);
+			tierTypes.put(tierName, types);
+			allStrings.addAll(types);
+		}
+		final String[] strings = allStrings.toArray(new String[0]);
+		final Map<String, Integer> stringIds = new HashMap<>();
+		for(int i = 0; i < strings.length; i++)
+			stringIds.put(strings[i], i);
+
+		final Path indexPath = indexFile.toPath();
+		final Path tmpPath = Files.createTempFile(indexPath.toAbsolutePath().getParent(), "." + indexFile.getName() + "-", ".tmp");
+		try {
+			final int tierTablePos;
+			final int stringDataPos = HEADER_SIZE;
+			final int stringOffsetsPos;
+			final int linksPos;
+			final int[] entriesPos = new int[tierList.size()];
+			final int[] entryCounts = new int[tierList.size()];
+			try(final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+				out.write(new byte[HEADER_SIZE]);
+
+				final int[] stringOffsets = new int[strings.length + 1];
+				for(int i = 0; i < strings.length; i++) {
+					stringOffsets[i] = out.size() - stringDataPos;
+					out.write(strings[i].getBytes(StandardCharsets.UTF_8));
+				}
+				stringOffsets[strings.length] = out.size() - stringDataPos;
+
+				stringOffsetsPos = out.size();
+				for(int offset:stringOffsets)
+					out.writeInt(offset);
+
+				// links, entries are kept in memory until all links have been written
+				linksPos = out.size();
+				int linkIdx = 0;
+				final List<int[]> tierEntries = new ArrayList<>();
+				for(int tierIdx = 0; tierIdx < tierList.size(); tierIdx++) {
+					final String tierName = tierList.get(tierIdx);
+					final int[] typeIds = tierTypes.get(tierName).stream().mapToInt(stringIds::get).sorted().toArray();
+					final int[] entries = new int[typeIds.length * 3];
+					for(int i = 0; i < typeIds.length; i++) {
+						final Map<String, String[]> alignedTypes =
+								db.alignedTypesForTier(tierName, strings[typeIds[i]], tierList);
+						final int firstLink = linkIdx;
+						for(int alignedTierIdx = 0; alignedTierIdx < tierList.size(); alignedTierIdx++) {
+							if(alignedTierIdx == tierIdx) continue;
+							final String[] alignedTypeArr = alignedTypes.get(tierList.get(alignedTierIdx));
+							if(alignedTypeArr == null) continue;
+							final int[] alignedIds = Arrays.stream(alignedTypeArr)
+									.filter(stringIds::containsKey).mapToInt(stringIds::get).sorted().distinct().toArray();
+							for(int alignedId:alignedIds) {
+								out.writeInt(alignedTierIdx);
+								out.writeInt(alignedId);
+								++linkIdx;
+							}
+						}
+						entries[i * 3] = typeIds[i];
+						entries[i * 3 + 1] = firstLink;
+						entries[i * 3 + 2] = linkIdx - firstLink;
+					}
+					tierEntries.add(entries);
+				}
+
+				tierTablePos = out.size();
+				int pos = tierTablePos + (tierList.size() * TIER_RECORD_SIZE);
+				for(int tierIdx = 0; tierIdx < tierList.size(); tierIdx++) {
+					entriesPos[tierIdx] = pos;
+					entryCounts[tierIdx] = tierEntries.get(tierIdx).length / 3;
+					out.writeInt(stringIds.get(tierList.get(tierIdx)));
+					out.writeInt(entriesPos[tierIdx]);
+					out.writeInt(entryCounts[tierIdx]);
+					pos += entryCounts[tierIdx] * ENTRY_RECORD_SIZE;
+				}
+				for(int[] entries:tierEntries) {
+					for(int v:entries)
+						out.writeInt(v);
+				}
+				// size is capped at Integer.MAX_VALUE on overflow
+				if(out.size() == Integer.MAX_VALUE)
+					throw new IOException("Database too large for index");
+			}
+
+			try(final RandomAccessFile raf = new RandomAccessFile(tmpPath.toFile(), "rw")) {
+				raf.writeLong(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeLong(snapshotFile.length());
+				raf.writeLong(snapshotFile.lastModified());
+				raf.writeInt(strings.length);
+				raf.writeInt(stringDataPos);
+				raf.writeInt(stringOffsetsPos);
+				raf.writeInt(linksPos);
+				raf.writeInt(tierList.size());
+				raf.writeInt(tierTablePos);
+			}
+
+			SnapshotWriter.replaceFile(tmpPath, indexPath);
+		} finally {
+			Files.deleteIfExists(tmpPath);
+		}
+	}
+
+	private String string(int id) {
+		final int start = buffer.getInt(stringOffsetsPos + (id * 4));
+		final int end = buffer.getInt(stringOffsetsPos + ((id + 1) * 4));
+		final byte[] bytes = new byte[end - start];
+		buffer.get(stringDataPos + start, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int stringId(String str) {
+		int low = 0;
+		int high = stringCount - 1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = string(mid).compareTo(str);
+			if(cmp < 0)
+				low = mid + 1;
+			else if(cmp > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	private int tierIndex(String tierName) {
+		for(int i = 0; i < tierNames.length; i++) {
+			if(tierNames[i].equals(tierName)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Locate entry for type in tier
+	 *
+	 * @return entry position or -1 if not found
+	 */
+	private int entryPos(int tierIdx, String type) {
+		if(tierIdx < 0 || type == null) return -1;
+		final int typeId = stringId(type);
+		if(typeId < 0) return -1;
+
+		int low = 0;
+		int high = tierEntryCount[tierIdx] - 1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int pos = tierEntriesPos[tierIdx] + (mid * ENTRY_RECORD_SIZE);
+			final int midId = buffer.getInt(pos);
+			if(midId < typeId)
+				low = mid + 1;
+			else if(midId > typeId)
+				high = mid - 1;
+			else
+				return pos;
+		}
+		return -1;
+	}
+
+	public Collection<String> tierNames() {
+		return List.of(tierNames);
+	}
+
+	public boolean typeExistsInTier(String type, String tierName) {
+		return entryPos(tierIndex(tierName), type) >= 0;
+	}
+
+	public Map<String, String[]> alignedTypesForTier(String tierName, String type) {
+		return alignedTypesForTier(tierName, type, tierNames());
+	}
+
+	public Map<String, String[]> alignedTypesForTier(String tierName, String type, Collection<String> tierList) {
+		final Map<String, String[]> retVal = new LinkedHashMap<>();
+		final int pos = entryPos(tierIndex(tierName), type);
+		if(pos < 0) return retVal;
+
+		final int firstLink = buffer.getInt(pos + 4);
+		final int linkCount = buffer.getInt(pos + 8);
+		final Map<String, List<String>> alignedTypes = new LinkedHashMap<>();
+		for(int i = 0; i < linkCount; i++) {
+			final int linkPos = linksPos + ((firstLink + i) * LINK_RECORD_SIZE);
+			final String alignedTier = tierNames[buffer.getInt(linkPos)];
+			if(!tierList.contains(alignedTier)) continue;
+			alignedTypes.computeIfAbsent(alignedTier, (k) -> new ArrayList<>()).add(string(buffer.getInt(linkPos + 4)));
+		}
+		for(String alignedTier:alignedTypes.keySet())
+			retVal.put(alignedTier, alignedTypes.get(alignedTier).toArray(new String[0]));
+		return retVal;
+	}
+
+	public boolean alignmentExists(String tierName, String type, String alignedTierName, String alignedType) {
+		final int pos = entryPos(tierIndex(tierName), type);
+		final int alignedTierIdx = tierIndex(alignedTierName);
+		if(pos < 0 || alignedTierIdx < 0) return false;
+		final int alignedId = stringId(alignedType);
+		if(alignedId < 0) return false;
+
+		// links are sorted by tier index then type id
+		int low = buffer.getInt(pos + 4);
+		int high = low + buffer.getInt(pos + 8) - 1;
+		while(low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int linkPos = linksPos + (mid * LINK_RECORD_SIZE);
+			int cmp = Integer.compare(buffer.getInt(linkPos), alignedTierIdx);
+			if(cmp == 0)
+				cmp = Integer.compare(buffer.getInt(linkPos + 4), alignedId);
+			if(cmp < 0)
+				low = mid + 1;
+			else if(cmp > 0)
+				high = mid - 1;
+			else
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if all given types are aligned with each other.  The index only stores
+	 * pairwise alignments, so this may include combinations which do not exist
+	 * as a single entry in the database.
+	 *
+	 * @param tierNames
+	 * @param types
+	 * @return true if all types are aligned
+	 */
+	public boolean hasAlignedTypes(String[] tierNames, String[] types) {
+		for(int i = 0; i < tierNames.length; i++) {
+			if(types[i] == null || types[i].length() == 0) continue;
+			for(int j = i + 1; j < tierNames.length; j++) {
+				if(types[j] == null || types[j].length() == 0) continue;
+				if(!alignmentExists(tierNames[i], types[i], tierNames[j], types[j])) return false;
+			}
+		}
+		return true;
+	}
+
+}
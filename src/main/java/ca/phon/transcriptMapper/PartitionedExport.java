@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Export of key types in partitions.  Partitions are exported concurrently and results are
+ * passed to a sink in partition order, so the output is the same as a serial export.  At most
+ * {@link #PARTITIONS_PER_THREAD} partitions per thread are exported ahead of the sink.
+ *
+ * Export files are written through a temporary file, see {@link #writeFile(File, ExportFileWriter)}.
+ */
+final class PartitionedExport {
+
+	private final static int PARTITION_SIZE = 512;
+
+	// maximum number of partitions exported ahead of the sink, per thread
+	private final static int PARTITIONS_PER_THREAD = 4;
+
+	/**
+	 * Export a partition of key types
+	 */
+	@FunctionalInterface
+	interface PartitionExporter<T> {
+		T export(List<String> partition) throws Exception;
+	}
+
+	/**
+	 * Receives partition results in order
+	 */
+	@FunctionalInterface
+	interface PartitionSink<T> {
+		void write(T result) throws IOException;
+	}
+
+	/**
+	 * Writes export data to the given (temporary) file
+	 */
+	@FunctionalInterface
+	interface ExportFileWriter {
+		/**
+		 * @param file
+		 * @return true if the export is complete
+		 */
+		boolean write(File file) throws IOException, ExecutionException, InterruptedException;
+	}
+
+	private PartitionedExport() {
+	}
+
+	/**
+	 * Write export file.  Data is written to a temporary file in the same folder which replaces
+	 * the target file only if the export is complete; cancelled or failed exports leave the
+	 * target untouched.
+	 *
+	 * @param target
+	 * @param writer
+	 * @return true if the export was complete and target has been replaced
+	 * @throws IOException
+	 * @throws ExecutionException
+	 * @throws InterruptedException
+	 */
+	static boolean writeFile(File target, ExportFileWriter writer)
+			throws IOException, ExecutionException, InterruptedException {
+		final Path targetPath = target.toPath().toAbsolutePath();
+		final Path tmpPath = Files.createTempFile(targetPath.getParent(), "." + target.getName() + "-", ".tmp");
+		try {
+			if(!writer.write(tmpPath.toFile())) return false;
+			try {
+				Files.move(tmpPath, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		} finally {
+			Files.deleteIfExists(tmpPath);
+		}
+	}
+
+	/**
+	 * Export key types
+	 *
+	 * @param keyTypes
+	 * @param exporter called concurrently for each partition
+	 * @param sink called on the current thread with partition results in order
+	 * @param cancelled checked before each partition is written
+	 * @param progress receives fraction of partitions written
+	 * @throws IOException if thrown by sink
+	 * @throws ExecutionException if a partition could not be exported
+	 * @throws InterruptedException
+	 */
+	static <T> void export(List<String> keyTypes, PartitionExporter<T> exporter, PartitionSink<T> sink,
+	                       BooleanSupplier cancelled, Consumer<Float> progress)
+			throws IOException, ExecutionException, InterruptedException {
+		final int numPartitions = (keyTypes.size() + PARTITION_SIZE - 1) / PARTITION_SIZE;
+		final int numThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), numPartitions));
+		final ExecutorService executor = Executors.newFixedThreadPool(numThreads, (r) -> {
+			final Thread thread = new Thread(r, "TranscriptMapper-export");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			final Deque<Future<T>> pending = new ArrayDeque<>();
+			int nextPartition = 0;
+			int partitionsWritten = 0;
+			while(!cancelled.getAsBoolean() && partitionsWritten < numPartitions) {
+				while(nextPartition < numPartitions && pending.size() < numThreads * PARTITIONS_PER_THREAD) {
+					final int from = nextPartition * PARTITION_SIZE;
+					final List<String> partition = keyTypes.subList(from, Math.min(keyTypes.size(), from + PARTITION_SIZE));
+					pending.add(executor.submit(() -> exporter.export(partition)));
+					++nextPartition;
+				}
+				final T result = pending.poll().get();
+				if(result != null)
+					sink.write(result);
+				++partitionsWritten;
+				progress.accept((float)partitionsWritten / (float)numPartitions);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -15,14 +15,15 @@
 package ca.phon.transcriptMapper;
 
 import ca.phon.alignedTypesDatabase.*;
+import ca.phon.app.log.LogUtil;
 import ca.phon.project.Project;
-import org.apache.commons.io.FileUtils;
 
 import java.io.*;
 
 /**
  * Project extension providing a single {@link AlignedTypesDatabase} for
- * a loaded project.
+ * a loaded project.  The database is created, or loaded from the project
+ * resources folder, on first access.
  */
 public final class ProjectATDB {
 
@@ -32,26 +33,37 @@ public final class ProjectATDB {
 	private final static String BACKUP_DB_FILENAME = "__res/transcriptMapper/typeMap-backup" +
 			AlignedTypesDatabaseIO.DBZ_EXT;
 
-	private Project project;
+	private final Project project;
 
-	private AlignedTypesDatabase atdb;
+	private volatile AlignedTypesDatabase atdb;
+
+	private volatile boolean modified = false;
 
 	ProjectATDB(Project project) {
 		this.project = project;
-
-		this.atdb = (new AlignedTypesDatabaseFactory()).createDatabase();
 	}
 
 	public boolean isATDBLoaded() {
 		return this.atdb != null;
 	}
 
+	public boolean isModified() {
+		return this.modified;
+	}
+
 	/**
-	 * Return the project aligned types database.
+	 * Return the project aligned types database, loading it if necessary.
 	 *
-	 * @return ATDB for project, null if project has not been loaded
+	 * @return ATDB for project, null if project database could not be loaded
 	 */
 	public synchronized AlignedTypesDatabase getATDB() {
+		if(!isATDBLoaded()) {
+			try {
+				loadATDB();
+			} catch (IOException e) {
+				LogUtil.severe(e);
+			}
+		}
 		return atdb;
 	}
 
@@ -66,26 +78,46 @@ public final class ProjectATDB {
 	}
 
 	/**
-	 * Load the project {@link AlignedTypesDatabase}
+	 * Load the project {@link AlignedTypesDatabase}, an empty database is created
+	 * if the project does not have a database file.
 	 */
 	public synchronized void loadATDB() throws IOException {
-		final File projectDbFile = projectDbFile();
-		if(projectDbFile.exists()) {
-			this.atdb = AlignedTypesDatabaseIO.readFromFile(projectDbFile);
+		if(isATDBLoaded()) return;
+		final File projectDbFile = SnapshotWriter.resolveSnapshot(projectDbFile(), projectBackupFile());
+		final AlignedTypesDatabase db;
+		if(projectDbFile != null) {
+			db = AlignedTypesDatabaseIO.readFromFile(projectDbFile);
+		} else {
+			db = (new AlignedTypesDatabaseFactory()).createDatabase();
 		}
+		db.addDatabaseListener(listener);
+		this.modified = false;
+		this.atdb = db;
 	}
 
 	public synchronized void backupProjectDb() throws IOException {
-		FileUtils.copyFile(projectDbFile(), projectBackupFile());
+		SnapshotWriter.copySnapshot(projectDbFile(), projectBackupFile());
 	}
 
+	/**
+	 * Save the project database, no action is taken if the database has not been
+	 * loaded or has not been modified.
+	 *
+	 * @throws IOException
+	 */
 	public synchronized void saveProjectDb() throws  IOException {
-		final File projectDbFile = projectDbFile();
-		final File parentFolder = projectDbFile.getParentFile();
-		if(!parentFolder.exists()) {
-			parentFolder.mkdirs();
+		if(!isATDBLoaded() || !isModified()) return;
+		this.modified = false;
+		try {
+			SnapshotWriter.writeSnapshot(this.atdb, projectDbFile(), projectBackupFile());
+		} catch (IOException e) {
+			this.modified = true;
+			throw e;
 		}
-		AlignedTypesDatabaseIO.writeToFile(this.atdb, projectDbFile);
 	}
 
+	private final AlignedTypesDatabaseListener listener = (evt) -> {
+		this.modified = true;
+	};
+
 }
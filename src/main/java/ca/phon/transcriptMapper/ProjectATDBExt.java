@@ -25,6 +25,7 @@ public final class ProjectATDBExt implements ExtensionProvider {
 		if(!(iExtendable instanceof Project))
 			throw new IllegalArgumentException();
 		final Project project = (Project) iExtendable;
+		// database is not created/loaded until first requested
 		project.putExtension(ProjectATDB.class, new ProjectATDB(project));
 	}
 
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
+import ca.phon.app.log.LogUtil;
+import ca.phon.project.Project;
+import ca.phon.session.*;
+import ca.phon.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Background service keeping the user database in sync with the sessions of a project.
+ * Session files in the project's corpus folders are watched using a {@link WatchService};
+ * once a session file has not changed for {@link #DEBOUNCE_PROP} milliseconds it is
+ * scanned on a low priority worker using the same {@link SessionScanIndex} as
+ * {@link ScanProjectWizard}, so only new aligned types are added and stale types removed.
+ * When session files or corpus folders are deleted (or renamed) aligned types contributed
+ * only by the missing sessions are removed.
+ *
+ * At most one watcher exists per project, it is shared by all owners which started it
+ * and stopped once released by the last owner, see {@link #startWatching(Project, Object)}.
+ */
+public final class ProjectSessionWatcher {
+
+	/**
+	 * Keep the type map in sync with project sessions
+	 */
+	public final static String ENABLED_PROP = ProjectSessionWatcher.class.getName() + ".enabled";
+	public final static boolean DEFAULT_ENABLED = false;
+
+	/**
+	 * Time (in ms) a session file must be unchanged before it is scanned
+	 */
+	public final static String DEBOUNCE_PROP = ProjectSessionWatcher.class.getName() + ".debounce";
+	public final static int DEFAULT_DEBOUNCE = 2000;
+
+	private final static String SESSION_EXT = ".xml";
+
+	// number of times a session which could not be scanned or saved is scanned again before waiting for the next change
+	private final static int MAX_RETRIES = 3;
+
+	private final static Map<UUID, ProjectSessionWatcher> watchers = new ConcurrentHashMap<>();
+
+	private final Project project;
+
+	private final Path projectPath;
+
+	private final WatchService watchService;
+
+	private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+
+	// session path -> time of last change
+	private final Map<SessionPath, Long> pendingSessions = new ConcurrentHashMap<>();
+
+	// session path -> number of failed scans
+	private final Map<SessionPath, Integer> failedSessions = new ConcurrentHashMap<>();
+
+	// time of last deleted session or folder, 0 if there are no deletions to process
+	private final AtomicLong pruneRequested = new AtomicLong(0L);
+
+	// guarded by ProjectSessionWatcher.class
+	private final Set<Object> owners = new HashSet<>();
+
+	private final ScheduledExecutorService scanExecutor;
+
+	private final Thread watchThread;
+
+	private volatile boolean running = true;
+
+	public static boolean isEnabled() {
+		return PrefHelper.getBoolean(ENABLED_PROP, DEFAULT_ENABLED);
+	}
+
+	public static void setEnabled(boolean enabled) {
+		PrefHelper.getUserPreferences().putBoolean(ENABLED_PROP, enabled);
+	}
+
+	/**
+	 * Start watching project if not already watched.  The watcher is kept until released
+	 * by all owners, see {@link #release(Project, Object)}.
+	 *
+	 * @param project
+	 * @param owner e.g., the editor view requiring the watcher
+	 * @return watcher for project or null if the project folder could not be watched
+	 */
+	public static synchronized ProjectSessionWatcher startWatching(Project project, Object owner) {
+		ProjectSessionWatcher retVal = watchers.get(project.getUUID());
+		if(retVal == null) {
+			try {
+				retVal = new ProjectSessionWatcher(project);
+				watchers.put(project.getUUID(), retVal);
+				LogUtil.info("[TranscriptMapper] Watching sessions in " + project.getLocation());
+			} catch (IOException e) {
+				LogUtil.warning("[TranscriptMapper] Unable to watch project " + project.getLocation(), e);
+				return null;
+			}
+		}
+		retVal.owners.add(owner);
+		return retVal;
+	}
+
+	/**
+	 * Release watcher of project for owner, the watcher is stopped once released by all owners
+	 *
+	 * @param project
+	 * @param owner
+	 */
+	public static synchronized void release(Project project, Object owner) {
+		final ProjectSessionWatcher watcher = watchers.get(project.getUUID());
+		if(watcher == null) return;
+		watcher.owners.remove(owner);
+		if(watcher.owners.isEmpty())
+			stopWatching(project);
+	}
+
+	/**
+	 * Stop watching project regardless of owners
+	 *
+	 * @param project
+	 */
+	public static synchronized void stopWatching(Project project) {
+		final ProjectSessionWatcher watcher = watchers.remove(project.getUUID());
+		if(watcher != null) {
+			watcher.owners.clear();
+			watcher.stop();
+			LogUtil.info("[TranscriptMapper] Stopped watching sessions in " + project.getLocation());
+		}
+	}
+
+	public static boolean isWatching(Project project) {
+		return watchers.containsKey(project.getUUID());
+	}
+
+	private ProjectSessionWatcher(Project project) throws IOException {
+		this.project = project;
+		this.projectPath = Paths.get(project.getLocation());
+		this.watchService = projectPath.getFileSystem().newWatchService();
+
+		register(projectPath);
+		try(final DirectoryStream<Path> corpusFolders = Files.newDirectoryStream(projectPath, Files::isDirectory)) {
+			for(Path corpusFolder:corpusFolders) {
+				if(!isHidden(corpusFolder))
+					register(corpusFolder);
+			}
+		}
+
+		this.scanExecutor = Executors.newSingleThreadScheduledExecutor((r) -> {
+			final Thread thread = new Thread(r, "TranscriptMapper-session-scan");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		final long debounce = PrefHelper.getInt(DEBOUNCE_PROP, DEFAULT_DEBOUNCE);
+		scanExecutor.scheduleWithFixedDelay(this::scanPendingSessions, debounce, Math.max(100L, debounce / 2),
+				TimeUnit.MILLISECONDS);
+
+		this.watchThread = new Thread(this::watchLoop, "TranscriptMapper-session-watch");
+		watchThread.setDaemon(true);
+		watchThread.setPriority(Thread.MIN_PRIORITY);
+		watchThread.start();
+	}
+
+	private boolean isHidden(Path path) {
+		final String name = path.getFileName().toString();
+		return name.startsWith(".") || name.startsWith("__") || name.startsWith("~");
+	}
+
+	private void register(Path folder) throws IOException {
+		watchKeys.put(folder.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), folder);
+	}
+
+	/**
+	 * Register a new (or renamed) corpus folder and queue the sessions it contains
+	 */
+	private void addCorpusFolder(Path corpusFolder) throws IOException {
+		register(corpusFolder);
+		final long now = System.currentTimeMillis();
+		try(final DirectoryStream<Path> sessionFiles = Files.newDirectoryStream(corpusFolder, "*" + SESSION_EXT)) {
+			for(Path sessionFile:sessionFiles) {
+				if(!isHidden(sessionFile))
+					pendingSessions.put(sessionPath(corpusFolder, sessionFile), now);
+			}
+		}
+	}
+
+	private SessionPath sessionPath(Path corpusFolder, Path sessionFile) {
+		final String filename = sessionFile.getFileName().toString();
+		return new SessionPath(corpusFolder.getFileName().toString(),
+				filename.substring(0, filename.length() - SESSION_EXT.length()));
+	}
+
+	private void watchLoop() {
+		while(running) {
+			final WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				break;
+			}
+			final Path folder = watchKeys.get(key);
+			if(folder != null) {
+				for(WatchEvent<?> event:key.pollEvents()) {
+					if(event.kind() == OVERFLOW || !(event.context() instanceof Path)) continue;
+					final Path path = folder.resolve((Path)event.context());
+					if(isHidden(path)) continue;
+
+					if(folder.equals(projectPath)) {
+						if(event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+							// new corpus folder
+							try {
+								addCorpusFolder(path);
+							} catch (IOException e) {
+								LogUtil.warning(e);
+							}
+						} else if(event.kind() == ENTRY_DELETE) {
+							// corpus folder deleted or renamed
+							pruneRequested.set(System.currentTimeMillis());
+						}
+					} else if(path.getFileName().toString().endsWith(SESSION_EXT)) {
+						if(event.kind() == ENTRY_DELETE)
+							pruneRequested.set(System.currentTimeMillis());
+						else
+							pendingSessions.put(sessionPath(folder, path), System.currentTimeMillis());
+					}
+				}
+			}
+			if(!key.reset())
+				watchKeys.remove(key);
+		}
+	}
+
+	/**
+	 * Scan sessions which have not changed during the debounce interval
+	 */
+	private void scanPendingSessions() {
+		final long cutoff = System.currentTimeMillis() - PrefHelper.getInt(DEBOUNCE_PROP, DEFAULT_DEBOUNCE);
+		final List<SessionPath> sessionPaths = new ArrayList<>();
+		for(Map.Entry<SessionPath, Long> entry:pendingSessions.entrySet()) {
+			if(entry.getValue() <= cutoff && pendingSessions.remove(entry.getKey(), entry.getValue()))
+				sessionPaths.add(entry.getKey());
+		}
+		final long pruneTime = pruneRequested.get();
+		final boolean prune = pruneTime > 0L && pruneTime <= cutoff && pruneRequested.compareAndSet(pruneTime, 0L);
+		if((sessionPaths.isEmpty() && !prune) || !running) return;
+
+		// sessions which failed individually and have already been counted
+		final Set<SessionPath> failed = new HashSet<>();
+		try {
+			if(!scanSessions(sessionPaths, prune, failed) && prune)
+				pruneRequested.compareAndSet(0L, System.currentTimeMillis());
+		} catch (Exception e) {
+			LogUtil.warning("[TranscriptMapper] Background session scan failed", e);
+			// scan results were not saved
+			for(SessionPath sessionPath:sessionPaths) {
+				if(!failed.contains(sessionPath))
+					retryLater(sessionPath);
+			}
+			if(prune)
+				pruneRequested.compareAndSet(0L, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Scan a session which failed again after the debounce interval.  After {@link #MAX_RETRIES}
+	 * failures the session is dropped until it changes again.
+	 */
+	private void retryLater(SessionPath sessionPath) {
+		if(failedSessions.merge(sessionPath, 1, Integer::sum) <= MAX_RETRIES) {
+			requeue(List.of(sessionPath));
+		} else {
+			LogUtil.warning(String.format("[TranscriptMapper] Giving up on %s.%s until next change",
+					sessionPath.getCorpus(), sessionPath.getSession()));
+			failedSessions.remove(sessionPath);
+		}
+	}
+
+	/**
+	 * Scan sessions again after the debounce interval unless changed in the meantime
+	 */
+	private void requeue(Collection<SessionPath> sessionPaths) {
+		final long now = System.currentTimeMillis();
+		for(SessionPath sessionPath:sessionPaths)
+			pendingSessions.putIfAbsent(sessionPath, now);
+	}
+
+	/**
+	 * Scan sessions and save results
+	 *
+	 * @param sessionPaths
+	 * @param prune remove sessions which no longer exist
+	 * @param failed receives sessions which could not be scanned, these have been queued again
+	 * @return false if the scan was postponed
+	 * @throws IOException if results could not be saved
+	 */
+	private boolean scanSessions(List<SessionPath> sessionPaths, boolean prune, Set<SessionPath> failed) throws IOException {
+		final AlignedTypesDatabase db = UserATDB.getInstance().getATDB();
+		if(db == null) {
+			LogUtil.warning("[TranscriptMapper] User database not available, session scan postponed");
+			requeue(sessionPaths);
+			return false;
+		}
+
+		final String langId = TranscriptMapperEditorView.getSharedProps().getProperty(ScanProjectWizard.projectLangProp(project));
+		final LanguageEntry scanLang = (langId != null ? LanguageParser.getInstance().getEntryById(langId) : null);
+		final AlignedMorphemesScanner scanner = new AlignedMorphemesScanner(db, scanLang);
+		final UUID projectId = project.getUUID();
+
+		final ReentrantLock indexLock = SessionScanIndex.getLock(projectId, projectId);
+		indexLock.lock();
+		try {
+			final SessionScanIndex scanIndex = SessionScanIndex.load(projectId, projectId, SessionScanIndex.scanOptions(scanLang));
+			try(final AlignedTypesBatch batch = AlignedTypesBatch.beginJournaled(db)) {
+				if(prune) {
+					final int numRemoved = scanIndex.removeMissing(
+							(corpus, session) -> new File(project.getSessionPath(corpus, session)).exists(), batch);
+					LogUtil.info(String.format("[TranscriptMapper] Removed deleted sessions of %s (%d removed)",
+							project.getName(), numRemoved));
+				}
+				scanSessions(scanner, scanIndex, sessionPaths, batch, failed);
+			}
+			scanIndex.commit(db);
+		} finally {
+			indexLock.unlock();
+		}
+		for(SessionPath sessionPath:sessionPaths) {
+			if(!failed.contains(sessionPath))
+				failedSessions.remove(sessionPath);
+		}
+		return true;
+	}
+
+	private void scanSessions(AlignedMorphemesScanner scanner, SessionScanIndex scanIndex,
+	                          List<SessionPath> sessionPaths, AlignedTypesBatch batch, Set<SessionPath> failed) {
+		final UUID projectId = project.getUUID();
+		for(SessionPath sessionPath:sessionPaths) {
+			if(!running) break;
+			final String corpus = sessionPath.getCorpus();
+			final String sessionName = sessionPath.getSession();
+			try {
+				final File sessionFile = new File(project.getSessionPath(corpus, sessionName));
+				if(!sessionFile.exists()) continue;
+				final SessionScanIndex.Fingerprint prevFingerprint = scanIndex.getFingerprint(corpus, sessionName);
+				final SessionScanIndex.Fingerprint fingerprint = SessionScanIndex.Fingerprint.forFile(sessionFile, prevFingerprint);
+				if(fingerprint.sameContent(prevFingerprint)) {
+					scanIndex.touch(corpus, sessionName, fingerprint);
+					continue;
+				}
+
+				final Session session = project.openSession(corpus, sessionName);
+				final Map<Map<String, String>, Integer> alignedTypes = new LinkedHashMap<>();
+				scanner.scanSession(projectId, projectId, session, (at) -> alignedTypes.merge(at, 1, Integer::sum));
+				final Tuple<Integer, Integer> counts = scanIndex.apply(corpus, sessionName, fingerprint, alignedTypes, batch);
+				LogUtil.info(String.format("[TranscriptMapper] Scanned %s.%s (%d added, %d removed)",
+						corpus, sessionName, counts.getObj1(), counts.getObj2()));
+			} catch (IOException | RuntimeException e) {
+				// session may be partially written, scan again later
+				LogUtil.warning(String.format("[TranscriptMapper] Unable to scan %s.%s", corpus, sessionName), e);
+				failed.add(sessionPath);
+				retryLater(sessionPath);
+			}
+		}
+	}
+
+	private void stop() {
+		running = false;
+		scanExecutor.shutdownNow();
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			LogUtil.warning(e);
+		}
+		watchThread.interrupt();
+	}
+
+}
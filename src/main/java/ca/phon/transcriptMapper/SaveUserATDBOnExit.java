@@ -27,12 +27,13 @@ public class SaveUserATDBOnExit implements CheckForChangesOnExit, IPluginExtensi
 
 	@Override
 	public boolean hasChanges() {
-		return UserATDB.getInstance().isATDBLoaded() && UserATDB.getInstance().isModified();
+		return UserATDB.getInstance().isModified();
 	}
 
 	@Override
 	public void save() throws IOException {
-		UserATDB.getInstance().saveDb();
+		// compact journal into a new snapshot on exit
+		UserATDB.getInstance().compactDb();
 	}
 
 	@Override
@@ -40,10 +40,12 @@ import java.awt.*;
 import java.io.*;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ScanProjectWizard extends BreadcrumbWizardFrame {
 
-	private final static String projectLangProp(Project project) {
+	final static String projectLangProp(Project project) {
 		return String.format("%s.scanProject.language", project.getUUID());
 	}
 
@@ -324,6 +326,37 @@ public class ScanProjectWizard extends BreadcrumbWizardFrame {
 		super.next();
 	}
 
+	/**
+	 * Aligned types found in a session or the error encountered while opening/scanning it
+	 */
+	private final static class SessionScanResult {
+
+		private final SessionPath sessionPath;
+
+		private final SessionScanIndex.Fingerprint fingerprint;
+
+		// aligned types and number of occurrences, null if session is unchanged since last scan
+		private final Map<Map<String, String>, Integer> alignedTypes;
+
+		private final Exception error;
+
+		SessionScanResult(SessionPath sessionPath, SessionScanIndex.Fingerprint fingerprint,
+		                  Map<Map<String, String>, Integer> alignedTypes, Exception error) {
+			this.sessionPath = sessionPath;
+			this.fingerprint = fingerprint;
+			this.alignedTypes = alignedTypes;
+			this.error = error;
+		}
+
+	}
+
+	/**
+	 * Sessions are fingerprinted, opened and scanned on a worker pool; sessions unchanged since
+	 * the last scan are skipped.  Results are placed on a bounded queue and written to the
+	 * database by the task thread, which is the only thread modifying the database or the
+	 * {@link SessionScanIndex}.  Aligned types no longer produced by any scanned session are
+	 * removed.  Errors are reported per session and do not stop the scan.
+	 */
 	private final PhonTask scanProjectTask = new PhonTask() {
 		@Override
 		public void performTask() {
@@ -331,23 +364,122 @@ public class ScanProjectWizard extends BreadcrumbWizardFrame {
 
 			reportPanel.getLogBuffer().append(String.format("Scanning project %s (%s)\n", project.getName(), project.getLocation()));
 
-			final AlignedMorphemesScanner scanner = new AlignedMorphemesScanner(db, (LanguageEntry) languageSelectionBox.getSelectedItem());
-			for(SessionPath sessionPath:sessionSelector.getSelectedSessions()) {
-				if(isShutdown()) {
-					reportPanel.getLogBuffer().append("Project scan canceled by user");
-					return;
-				}
-				reportPanel.getLogBuffer().append(String.format("Scanning %s.%s...\n", sessionPath.getCorpus(), sessionPath.getSession()));
-				try {
-					final Session session = project.openSession(sessionPath.getCorpus(), sessionPath.getSession());
-					scanner.scanSession(project.getUUID(), view.getEditor().getProject().getUUID(), session);
-				} catch (IOException e) {
-					super.err = e;
-					LogUtil.severe(e);
-					super.setStatus(TaskStatus.ERROR);
-					return;
+			// scan results and the scan index are only saved with the user database
+			db = UserATDB.getInstance().getATDB();
+			if(db == null) {
+				super.err = new IOException("Unable to load user database");
+				super.setStatus(TaskStatus.ERROR);
+				return;
+			}
+
+			final LanguageEntry scanLang = (LanguageEntry) languageSelectionBox.getSelectedItem();
+			final AlignedMorphemesScanner scanner = new AlignedMorphemesScanner(db, scanLang);
+			final UUID srcProjectId = project.getUUID();
+			final UUID projectId = view.getEditor().getProject().getUUID();
+			final List<SessionPath> sessionPaths = new ArrayList<>(sessionSelector.getSelectedSessions());
+			final ReentrantLock indexLock = SessionScanIndex.getLock(srcProjectId, projectId);
+			indexLock.lock();
+			try {
+				scanProject(scanner, srcProjectId, projectId, sessionPaths,
+						SessionScanIndex.load(srcProjectId, projectId, SessionScanIndex.scanOptions(scanLang)));
+			} finally {
+				indexLock.unlock();
+			}
+		}
+
+		private void scanProject(AlignedMorphemesScanner scanner, UUID srcProjectId, UUID projectId,
+		                         List<SessionPath> sessionPaths, SessionScanIndex scanIndex) {
+			final int numWorkers = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, sessionPaths.size()));
+			// workers block once the queue is full, limiting the number of scanned sessions in memory
+			final BlockingQueue<SessionScanResult> resultQueue = new ArrayBlockingQueue<>(2 * numWorkers);
+			final ExecutorService workers = Executors.newFixedThreadPool(numWorkers, (r) -> {
+				final Thread thread = new Thread(r, "TranscriptMapper-scan");
+				thread.setDaemon(true);
+				return thread;
+			});
+			for(SessionPath sessionPath:sessionPaths) {
+				final SessionScanIndex.Fingerprint prevFingerprint =
+						scanIndex.getFingerprint(sessionPath.getCorpus(), sessionPath.getSession());
+				workers.submit(() -> {
+					if(isShutdown()) return null;
+					SessionScanResult result = null;
+					try {
+						final File sessionFile = new File(project.getSessionPath(sessionPath.getCorpus(), sessionPath.getSession()));
+						final SessionScanIndex.Fingerprint fingerprint = SessionScanIndex.Fingerprint.forFile(sessionFile, prevFingerprint);
+						if(fingerprint.sameContent(prevFingerprint)) {
+							result = new SessionScanResult(sessionPath, fingerprint, null, null);
+						} else {
+							final Session session = project.openSession(sessionPath.getCorpus(), sessionPath.getSession());
+							final Map<Map<String, String>, Integer> alignedTypes = new LinkedHashMap<>();
+							scanner.scanSession(srcProjectId, projectId, session, (at) -> alignedTypes.merge(at, 1, Integer::sum));
+							result = new SessionScanResult(sessionPath, fingerprint, alignedTypes, null);
+						}
+					} catch (Exception e) {
+						result = new SessionScanResult(sessionPath, null, null, e);
+					}
+					resultQueue.put(result);
+					return null;
+				});
+			}
+			workers.shutdown();
+
+			int sessionsScanned = 0;
+			int sessionsSkipped = 0;
+			int numErrors = 0;
+			int numRemoved = 0;
+			try(final AlignedTypesBatch batch = AlignedTypesBatch.beginJournaled(db)) {
+				while(sessionsScanned < sessionPaths.size()) {
+					if(isShutdown()) {
+						reportPanel.getLogBuffer().append("Project scan canceled by user\n");
+						break;
+					}
+					final SessionScanResult result = resultQueue.poll(100, TimeUnit.MILLISECONDS);
+					if(result == null) continue;
+
+					final SessionPath sessionPath = result.sessionPath;
+					if(result.error != null) {
+						++numErrors;
+						LogUtil.warning(result.error);
+						reportPanel.getLogBuffer().append(String.format("Unable to scan %s.%s: %s\n",
+								sessionPath.getCorpus(), sessionPath.getSession(), result.error.getLocalizedMessage()));
+					} else if(result.alignedTypes == null) {
+						++sessionsSkipped;
+						scanIndex.touch(sessionPath.getCorpus(), sessionPath.getSession(), result.fingerprint);
+					} else {
+						final Tuple<Integer, Integer> counts = scanIndex.apply(sessionPath.getCorpus(),
+								sessionPath.getSession(), result.fingerprint, result.alignedTypes, batch);
+						numRemoved += counts.getObj2();
+						reportPanel.getLogBuffer().append(String.format("Scanned %s.%s (%d entries, %d added, %d removed)\n",
+								sessionPath.getCorpus(), sessionPath.getSession(), result.alignedTypes.size(),
+								counts.getObj1(), counts.getObj2()));
+					}
+					++sessionsScanned;
+					super.setProgress((float)sessionsScanned / (float)sessionPaths.size());
 				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				workers.shutdownNow();
+			}
+
+			// index is saved on cancel as well, it records only sessions written to the database
+			try {
+				scanIndex.commit(db);
+			} catch (IOException e) {
+				LogUtil.warning(e);
+				reportPanel.getLogBuffer().append(String.format("Unable to save scan results: %s\n", e.getLocalizedMessage()));
+			}
+
+			if(isShutdown() || Thread.currentThread().isInterrupted()) {
+				super.setStatus(TaskStatus.TERMINATED);
+				return;
 			}
+			if(sessionsSkipped > 0)
+				reportPanel.getLogBuffer().append(String.format("%d unchanged session(s) skipped\n", sessionsSkipped));
+			if(numRemoved > 0)
+				reportPanel.getLogBuffer().append(String.format("%d stale entries removed\n", numRemoved));
+			if(numErrors > 0)
+				reportPanel.getLogBuffer().append(String.format("%d session(s) could not be scanned\n", numErrors));
 			reportPanel.getLogBuffer().append("Scan complete, you may close the window.");
 			super.setStatus(TaskStatus.FINISHED);
 		}
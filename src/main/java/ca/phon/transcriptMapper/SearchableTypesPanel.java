@@ -76,6 +76,7 @@ public class SearchableTypesPanel extends JPanel {
 		searchField = new PromptedTextField("Search");
 		searchField.getDocument().addDocumentListener(searchFieldListener);
 		searchField.setFont(FontPreferences.getTierFont());
+		searchField.setToolTipText("Search types in the user database (language shards, e.g., imported IPA dictionaries, are not searched)");
 
 		final String plainTextSearch = PrefHelper.get(PLAIN_TEXT_SEARCH_PROP, "starts with");
 		btnGrp = new ButtonGroup();
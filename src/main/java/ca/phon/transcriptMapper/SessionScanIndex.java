@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.*;
+import ca.phon.app.log.LogUtil;
+import ca.phon.util.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+import java.util.zip.*;
+
+/**
+ * Record of sessions scanned from a project into the user database.  For each session the
+ * index stores a fingerprint of the session file and the aligned types the session
+ * contributed along with their number of occurrences.  Aligned types are reference counted
+ * across sessions so that types no longer produced by any scanned session can be retracted
+ * when sessions change, occurrence counts are used to keep {@link AlignedTypeFrequencies}
+ * up to date when a session is scanned again.
+ *
+ * Scan options (e.g., language) are stored with each session; a session scanned with
+ * different options is considered modified.
+ */
+final class SessionScanIndex {
+
+	private final static String INDEX_FOLDER = "transcriptMapper/scans";
+
+	private final static String INDEX_EXT = ".scanidx";
+
+	private final static int MAGIC = 0x53434933; // 'SCI3'
+
+	/**
+	 * Session file fingerprint
+	 */
+	static final class Fingerprint {
+
+		private final long size;
+
+		private final long lastModified;
+
+		private final long hash;
+
+		Fingerprint(long size, long lastModified, long hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		/**
+		 * Compute fingerprint for file.  The file contents are hashed only if size or
+		 * modification time differ from the previous fingerprint.
+		 *
+		 * @param file
+		 * @param prev previous fingerprint, may be null
+		 * @return fingerprint
+		 * @throws IOException
+		 */
+		static Fingerprint forFile(File file, Fingerprint prev) throws IOException {
+			final long size = file.length();
+			final long lastModified = file.lastModified();
+			if(prev != null && prev.size == size && prev.lastModified == lastModified)
+				return prev;
+
+			final CRC32 crc = new CRC32();
+			try(final InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+				final byte[] buffer = new byte[64 * 1024];
+				int len = 0;
+				while((len = in.read(buffer)) > 0)
+					crc.update(buffer, 0, len);
+			}
+			return new Fingerprint(size, lastModified, crc.getValue());
+		}
+
+		/**
+		 * Session contents are the same, modification time is ignored
+		 */
+		boolean sameContent(Fingerprint other) {
+			return other != null && size == other.size && hash == other.hash;
+		}
+
+	}
+
+	private static final class SessionEntry {
+
+		private Fingerprint fingerprint;
+
+		// scan options used when the session was scanned
+		private final String options;
+
+		// aligned types -> number of occurrences in session
+		private Map<Map<String, String>, Integer> alignedTypes;
+
+		SessionEntry(Fingerprint fingerprint, String options, Map<Map<String, String>, Integer> alignedTypes) {
+			this.fingerprint = fingerprint;
+			this.options = options;
+			this.alignedTypes = alignedTypes;
+		}
+
+	}
+
+	private final File file;
+
+	private final String options;
+
+	private final Map<String, SessionEntry> sessions = new LinkedHashMap<>();
+
+	private final Map<Map<String, String>, Integer> refCounts = new HashMap<>();
+
+	// one lock per index file, held while an index is loaded, applied and saved
+	private final static Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+	private static String indexFilename(UUID srcProjectId, UUID projectId) {
+		return String.format("%s-%s%s", srcProjectId, projectId, INDEX_EXT);
+	}
+
+	/**
+	 * Return lock for the index of the given source and target project.  Scans of the same
+	 * project must hold the lock from {@link #load(UUID, UUID, String)} until {@link #save()}.
+	 *
+	 * @param srcProjectId
+	 * @param projectId
+	 * @return lock
+	 */
+	public static ReentrantLock getLock(UUID srcProjectId, UUID projectId) {
+		return locks.computeIfAbsent(indexFilename(srcProjectId, projectId), (k) -> new ReentrantLock());
+	}
+
+	/**
+	 * Scan options string for the given scan language
+	 *
+	 * @param scanLang
+	 * @return options string
+	 */
+	public static String scanOptions(LanguageEntry scanLang) {
+		return "lang=" + (scanLang != null ? scanLang.getId() : "");
+	}
+
+	/**
+	 * Load scan index for the given source and target project
+	 *
+	 * @param srcProjectId
+	 * @param projectId
+	 * @param options scan options affecting the aligned types produced
+	 * @return index, empty if no index exists or the index could not be read
+	 */
+	public static SessionScanIndex load(UUID srcProjectId, UUID projectId, String options) {
+		final String filename = indexFilename(srcProjectId, projectId);
+		final SessionScanIndex retVal =
+				new SessionScanIndex(new File(new File(PrefHelper.getUserDataFolder(), INDEX_FOLDER), filename), options);
+		if(retVal.file.exists()) {
+			try {
+				retVal.read();
+			} catch (IOException e) {
+				LogUtil.warning("[TranscriptMapper] Unable to read scan index " + retVal.file.getAbsolutePath(), e);
+				retVal.sessions.clear();
+				retVal.refCounts.clear();
+			}
+		}
+		return retVal;
+	}
+
+	private SessionScanIndex(File file, String options) {
+		this.file = file;
+		this.options = options;
+	}
+
+	private static String sessionKey(String corpus, String session) {
+		return corpus + "." + session;
+	}
+
+	/**
+	 * Fingerprint of session when last scanned.  A session is unmodified if the fingerprint
+	 * of the session file has the {@link Fingerprint#sameContent(Fingerprint) same content}
+	 * and the session was scanned with the current options.
+	 *
+	 * @param corpus
+	 * @param session
+	 * @return fingerprint or null if the session must be scanned
+	 */
+	public Fingerprint getFingerprint(String corpus, String session) {
+		final SessionEntry entry = sessions.get(sessionKey(corpus, session));
+		return (entry != null && options.equals(entry.options) ? entry.fingerprint : null);
+	}
+
+	/**
+	 * Update fingerprint of an unmodified session
+	 */
+	public void touch(String corpus, String session, Fingerprint fingerprint) {
+		final SessionEntry entry = sessions.get(sessionKey(corpus, session));
+		if(entry != null)
+			entry.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Aligned types previously contributed by session
+	 *
+	 * @param corpus
+	 * @param session
+	 * @return aligned types, empty if session has not been scanned
+	 */
+	public Set<Map<String, String>> getAlignedTypes(String corpus, String session) {
+		final SessionEntry entry = sessions.get(sessionKey(corpus, session));
+		return (entry != null ? Collections.unmodifiableSet(entry.alignedTypes.keySet()) : Collections.emptySet());
+	}
+
+	/**
+	 * Replace aligned types contributed by session, the session is recorded with the current options
+	 *
+	 * @param corpus
+	 * @param session
+	 * @param fingerprint
+	 * @param alignedTypes aligned types and their number of occurrences in session
+	 * @return aligned types no longer contributed by any session
+	 */
+	public Set<Map<String, String>> update(String corpus, String session, Fingerprint fingerprint,
+	                                       Map<Map<String, String>, Integer> alignedTypes) {
+		final Set<Map<String, String>> retVal = new LinkedHashSet<>();
+		final SessionEntry prev = sessions.put(sessionKey(corpus, session), new SessionEntry(fingerprint, options, alignedTypes));
+		for(Map<String, String> at:alignedTypes.keySet()) {
+			if(prev == null || !prev.alignedTypes.containsKey(at))
+				refCounts.merge(at, 1, Integer::sum);
+		}
+		if(prev != null) {
+			for(Map<String, String> at:prev.alignedTypes.keySet()) {
+				if(alignedTypes.containsKey(at)) continue;
+				if(refCounts.merge(at, -1, Integer::sum) <= 0) {
+					refCounts.remove(at);
+					retVal.add(at);
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * Apply scan results for a session to the database: new aligned types are added and
+	 * aligned types no longer contributed by any session are removed.  Occurrence counts
+	 * are adjusted by the difference from the previous scan of the session.
+	 *
+	 * @param corpus
+	 * @param session
+	 * @param fingerprint
+	 * @param alignedTypes aligned types and their number of occurrences in session
+	 * @param batch
+	 * @return number of aligned types added and removed
+	 */
+	public Tuple<Integer, Integer> apply(String corpus, String session, Fingerprint fingerprint,
+	                                     Map<Map<String, String>, Integer> alignedTypes, AlignedTypesBatch batch) {
+		final SessionEntry prevEntry = sessions.get(sessionKey(corpus, session));
+		final Map<Map<String, String>, Integer> prevAlignedTypes =
+				(prevEntry != null ? prevEntry.alignedTypes : Collections.emptyMap());
+		int numAdded = 0;
+		for(Map.Entry<Map<String, String>, Integer> entry:alignedTypes.entrySet()) {
+			final Map<String, String> at = entry.getKey();
+			final Integer prevOccurrences = prevAlignedTypes.get(at);
+			if(prevOccurrences == null && batch.addAlignedTypesIfAbsent(at))
+				++numAdded;
+			batch.addOccurrences(at, entry.getValue() - (prevOccurrences != null ? prevOccurrences : 0));
+		}
+		for(Map.Entry<Map<String, String>, Integer> entry:prevAlignedTypes.entrySet()) {
+			if(!alignedTypes.containsKey(entry.getKey()))
+				batch.addOccurrences(entry.getKey(), -entry.getValue());
+		}
+		final Set<Map<String, String>> staleAlignedTypes = update(corpus, session, fingerprint, alignedTypes);
+		for(Map<String, String> at:staleAlignedTypes) {
+			final Tuple<String[], String[]> arrays = AlignedTypesUtil.alignedTypesToArrays(at);
+			batch.removeAlignedTypes(arrays.getObj1(), arrays.getObj2());
+		}
+		return new Tuple<>(numAdded, staleAlignedTypes.size());
+	}
+
+	/**
+	 * Remove sessions which no longer exist from the index.  Occurrences of removed sessions
+	 * are subtracted and aligned types no longer contributed by any session are removed from
+	 * the database.  As corpus and session names may contain '.', a session is kept if any
+	 * split of its key names an existing session.
+	 *
+	 * @param sessionExists tests corpus and session name
+	 * @param batch
+	 * @return number of aligned types removed
+	 */
+	public int removeMissing(BiPredicate<String, String> sessionExists, AlignedTypesBatch batch) {
+		int numRemoved = 0;
+		final Iterator<Map.Entry<String, SessionEntry>> itr = sessions.entrySet().iterator();
+		while(itr.hasNext()) {
+			final Map.Entry<String, SessionEntry> sessionEntry = itr.next();
+			final String key = sessionEntry.getKey();
+			boolean exists = false;
+			for(int idx = key.indexOf('.'); idx >= 0 && !exists; idx = key.indexOf('.', idx + 1))
+				exists = sessionExists.test(key.substring(0, idx), key.substring(idx + 1));
+			if(exists) continue;
+
+			itr.remove();
+			for(Map.Entry<Map<String, String>, Integer> entry:sessionEntry.getValue().alignedTypes.entrySet()) {
+				final Map<String, String> at = entry.getKey();
+				batch.addOccurrences(at, -entry.getValue());
+				if(refCounts.merge(at, -1, Integer::sum) <= 0) {
+					refCounts.remove(at);
+					final Tuple<String[], String[]> arrays = AlignedTypesUtil.alignedTypesToArrays(at);
+					batch.removeAlignedTypes(arrays.getObj1(), arrays.getObj2());
+					++numRemoved;
+				}
+			}
+		}
+		return numRemoved;
+	}
+
+	private void read() throws IOException {
+		try(final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			if(in.readInt() != MAGIC)
+				throw new IOException("Invalid scan index");
+			final int numSessions = in.readInt();
+			for(int i = 0; i < numSessions; i++) {
+				final String key = in.readUTF();
+				final Fingerprint fingerprint = new Fingerprint(in.readLong(), in.readLong(), in.readLong());
+				final String sessionOptions = in.readUTF();
+				final int numTypes = in.readInt();
+				final Map<Map<String, String>, Integer> alignedTypes = new LinkedHashMap<>();
+				for(int j = 0; j < numTypes; j++) {
+					final int numTiers = in.readInt();
+					final Map<String, String> at = new LinkedHashMap<>();
+					for(int k = 0; k < numTiers; k++)
+						at.put(in.readUTF(), in.readUTF());
+					alignedTypes.put(at, in.readInt());
+					refCounts.merge(at, 1, Integer::sum);
+				}
+				sessions.put(key, new SessionEntry(fingerprint, sessionOptions, alignedTypes));
+			}
+		}
+	}
+
+	/**
+	 * Save the database scan results were applied to, then the occurrence counts and
+	 * finally the index, so the index never records sessions whose entries or counts are
+	 * not on disk.  Use a
+	 * {@link AlignedTypesBatch#beginJournaled(AlignedTypesDatabase) journaled batch} when
+	 * applying results so that saving the database only appends to the journal.
+	 *
+	 * @param db
+	 * @throws IOException if the database, counts or index could not be saved
+	 */
+	public void commit(AlignedTypesDatabase db) throws IOException {
+		final UserATDB userATDB = UserATDB.getInstance();
+		if(!userATDB.isUserDatabase(db))
+			throw new IOException("Scan results must be applied to the user database");
+		userATDB.saveDb();
+		userATDB.saveFrequencies();
+		save();
+	}
+
+	/**
+	 * Write index
+	 *
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		final Path folder = file.getParentFile().toPath();
+		Files.createDirectories(folder);
+		final Path tmpPath = Files.createTempFile(folder, ".scanidx-", INDEX_EXT);
+		try {
+			try(final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmpPath.toFile()))))) {
+				out.writeInt(MAGIC);
+				out.writeInt(sessions.size());
+				for(String key:sessions.keySet()) {
+					final SessionEntry entry = sessions.get(key);
+					out.writeUTF(key);
+					out.writeLong(entry.fingerprint.size);
+					out.writeLong(entry.fingerprint.lastModified);
+					out.writeLong(entry.fingerprint.hash);
+					out.writeUTF(entry.options);
+					out.writeInt(entry.alignedTypes.size());
+					for(Map.Entry<Map<String, String>, Integer> typeEntry:entry.alignedTypes.entrySet()) {
+						final Map<String, String> at = typeEntry.getKey();
+						out.writeInt(at.size());
+						for(String tierName:at.keySet()) {
+							out.writeUTF(tierName);
+							out.writeUTF(at.get(tierName));
+						}
+						out.writeInt(typeEntry.getValue());
+					}
+				}
+			}
+			SnapshotWriter.replaceFile(tmpPath, file.toPath());
+		} finally {
+			Files.deleteIfExists(tmpPath);
+		}
+	}
+
+}
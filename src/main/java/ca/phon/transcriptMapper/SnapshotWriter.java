@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.*;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Crash-safe writing of {@link AlignedTypesDatabase} snapshots.  The database is written
+ * to a temporary file in the same folder which is synced to disk and then atomically moved
+ * over the existing snapshot.  The previous snapshot is kept as the backup file using a hard
+ * link (or rename if links are not supported) instead of a copy.
+ */
+final class SnapshotWriter {
+
+	private SnapshotWriter() {
+	}
+
+	/**
+	 * Write database snapshot
+	 *
+	 * @param db
+	 * @param dbFile
+	 * @param backupFile previous snapshot is kept as this file, may be <code>null</code>
+	 * @return size of new snapshot in bytes
+	 * @throws IOException
+	 */
+	public static long writeSnapshot(AlignedTypesDatabase db, File dbFile, File backupFile) throws IOException {
+		final Path dbPath = dbFile.toPath();
+		final Path parentPath = dbPath.toAbsolutePath().getParent();
+		Files.createDirectories(parentPath);
+
+		// keep extension as it determines the output format
+		final String filename = dbFile.getName();
+		final int extIdx = filename.lastIndexOf('.');
+		final String prefix = "." + (extIdx > 0 ? filename.substring(0, extIdx) : filename) + "-";
+		final String suffix = (extIdx > 0 ? filename.substring(extIdx) : AlignedTypesDatabaseIO.DBZ_EXT);
+		final Path tmpPath = Files.createTempFile(parentPath, prefix, suffix);
+		try {
+			AlignedTypesDatabaseIO.writeToFile(db, tmpPath.toFile());
+
+			if(backupFile != null && Files.exists(dbPath))
+				backupSnapshot(dbFile, backupFile);
+
+			replaceFile(tmpPath, dbPath);
+		} finally {
+			Files.deleteIfExists(tmpPath);
+		}
+		return Files.size(dbPath);
+	}
+
+	/**
+	 * Replace target with a completely written temporary file in the same folder.  The
+	 * temporary file is synced to disk and atomically moved over target.
+	 *
+	 * @param tmpPath
+	 * @param target
+	 * @throws IOException
+	 */
+	public static void replaceFile(Path tmpPath, Path target) throws IOException {
+		try(final FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		try {
+			Files.move(tmpPath, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpPath, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		syncFolder(target.toAbsolutePath().getParent());
+	}
+
+	/**
+	 * Copy the current snapshot to backupFile, the snapshot is left in place.  A hard link is
+	 * used when supported, otherwise the snapshot is copied through a temporary file.
+	 *
+	 * @param dbFile
+	 * @param backupFile
+	 * @throws IOException
+	 */
+	public static void copySnapshot(File dbFile, File backupFile) throws IOException {
+		final Path dbPath = dbFile.toPath();
+		final Path backupPath = backupFile.toPath().toAbsolutePath();
+		if(!Files.exists(dbPath)) return;
+		Files.deleteIfExists(backupPath);
+		try {
+			Files.createLink(backupPath, dbPath);
+		} catch (UnsupportedOperationException | IOException e) {
+			final Path tmpPath = Files.createTempFile(backupPath.getParent(), "." + backupFile.getName() + "-", ".tmp");
+			try {
+				Files.copy(dbPath, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+				replaceFile(tmpPath, backupPath);
+			} finally {
+				Files.deleteIfExists(tmpPath);
+			}
+		}
+	}
+
+	/**
+	 * Keep the current snapshot as backupFile before it is replaced by a new snapshot.  A hard
+	 * link is used when supported, otherwise the current snapshot is renamed.
+	 *
+	 * @param dbFile
+	 * @param backupFile
+	 * @throws IOException
+	 */
+	private static void backupSnapshot(File dbFile, File backupFile) throws IOException {
+		final Path dbPath = dbFile.toPath();
+		final Path backupPath = backupFile.toPath();
+		if(!Files.exists(dbPath)) return;
+		Files.deleteIfExists(backupPath);
+		try {
+			Files.createLink(backupPath, dbPath);
+		} catch (UnsupportedOperationException | IOException e) {
+			Files.move(dbPath, backupPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Return the snapshot file to load.  If the snapshot is missing (e.g., Phon was
+	 * terminated after the previous snapshot was renamed) the backup is used.
+	 *
+	 * @param dbFile
+	 * @param backupFile
+	 * @return file to read or <code>null</code> if neither file exists
+	 */
+	public static File resolveSnapshot(File dbFile, File backupFile) {
+		if(dbFile.exists())
+			return dbFile;
+		else if(backupFile != null && backupFile.exists())
+			return backupFile;
+		else
+			return null;
+	}
+
+	private static void syncFolder(Path folder) {
+		try(final FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// not supported on all platforms
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of canonical string instances for values repeated across many aligned type entries
+ * such as tier names and metadata tier values (language, project ids.)  The pool is bounded,
+ * once full strings are returned as-is.  Instances are thread safe.
+ */
+final class StringPool {
+
+	private final static int DEFAULT_MAX_SIZE = 1 << 16;
+
+	private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+
+	private final int maxSize;
+
+	StringPool() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	StringPool(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Return canonical instance of the given string
+	 *
+	 * @param str
+	 * @return canonical instance of str, str if the pool is full
+	 */
+	public String intern(String str) {
+		if(str == null) return null;
+		final String existing = pool.get(str);
+		if(existing != null) return existing;
+		if(pool.size() >= maxSize) return str;
+		final String prev = pool.putIfAbsent(str, str);
+		return (prev != null ? prev : str);
+	}
+
+	/**
+	 * Intern value only if the given tier is a {@link TypeMapMetadataTier}
+	 *
+	 * @param tierName
+	 * @param value
+	 * @return canonical instance of value for metadata tiers, value otherwise
+	 */
+	public String internMetadata(String tierName, String value) {
+		return (TypeMapMetadataTier.isMetadataTier(tierName) ? intern(value) : value);
+	}
+
+	public int size() {
+		return pool.size();
+	}
+
+}
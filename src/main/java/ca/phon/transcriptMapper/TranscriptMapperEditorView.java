@@ -90,9 +90,22 @@ public final class TranscriptMapperEditorView extends EditorView {
 
 	public final static String ICON = "transcript-mapper";
 
+	/**
+	 * Maximum number of alignment options ranked by frequency, all options are ranked if 0.
+	 * Ranked options are listed first followed by all other options.
+	 */
+	public final static String MAX_ALIGNMENT_OPTIONS_PROP = TranscriptMapperEditorView.class.getName() + ".maxAlignmentOptions";
+	public final static int DEFAULT_MAX_ALIGNMENT_OPTIONS = 10;
+
 	// current internal state represented in a tree structure
 	private TypeMapNode currentState;
 
+	// empty database used while the user database is loading
+	private final AlignedTypesDatabase placeholderDb = (new AlignedTypesDatabaseFactory()).createDatabase();
+
+	// languages used to select user database shards
+	private List<String> sessionLanguageIds = new ArrayList<>();
+
 	// shared properties
 	private final static String SHARED_PROPS_FILE = PrefHelper.getUserDataFolder() + "/transcriptMapper/transcriptMapper.props";
 
@@ -244,24 +257,22 @@ public final class TranscriptMapperEditorView extends EditorView {
 	public TranscriptMapperEditorView(SessionEditor editor) {
 		super(editor);
 
+		this.sessionLanguageIds = sessionLanguageIds();
 		init();
 
 		final PropertyChangeListener changeListener = (e) -> {
 			updateDatabaseButtonState();
 		};
-		if(UserATDB.getInstance().isATDBLoaded()) {
-			updateAfterDbLoad();
-			UserATDB.getInstance().addPropertyChangeListener("modified", changeListener);
-		} else {
-			UserATDB.getInstance().addPropertyChangeListener("loaded", new PropertyChangeListener() {
-				@Override
-				public void propertyChange(PropertyChangeEvent evt) {
-					SwingUtilities.invokeLater(() -> updateAfterDbLoad());
-					UserATDB.getInstance().removePropertyChangeListener("loaded", this);
-					UserATDB.getInstance().addPropertyChangeListener("modified", changeListener);
-				}
-			});
+		UserATDB.getInstance().addPropertyChangeListener("modified", changeListener);
+		// view is displayed using an empty database until the user database is ready
+		UserATDB.getInstance().getATDBAsync().thenAccept((db) -> SwingUtilities.invokeLater(this::updateAfterDbLoad));
+		if(snapshotIndex() != null) {
+			// display suggestions from snapshot index while loading
+			SwingUtilities.invokeLater(this::updateAfterDbLoad);
 		}
+		loadLanguageShards();
+		if(ProjectSessionWatcher.isEnabled() && getEditor().getProject() != null)
+			ProjectSessionWatcher.startWatching(getEditor().getProject(), this);
 
 		setupEditorEvenListeners();
 	}
@@ -272,6 +283,14 @@ public final class TranscriptMapperEditorView extends EditorView {
 		getEditor().getEventManager().registerActionForEvent(EditorEventType.RecordChanged, this::onRecordChanged, EditorEventManager.RunOn.AWTEventDispatchThread);
 
 		getEditor().getEventManager().registerActionForEvent(EditorEventType.TierViewChanged, this::onTierViewChanged, EditorEventManager.RunOn.AWTEventDispatchThread);
+
+		getEditor().getEventManager().registerActionForEvent(EditorEventType.EditorClosing, this::onEditorClosing, EditorEventManager.RunOn.AWTEventDispatchThread);
+	}
+
+	private void onEditorClosing(EditorEvent<Void> ee) {
+		// session watcher is stopped once the last editor of the project is closed
+		if(getEditor().getProject() != null)
+			ProjectSessionWatcher.release(getEditor().getProject(), this);
 	}
 
 	private void onRecordChanged(EditorEvent<EditorEventType.RecordChangedData> ee) {
@@ -310,12 +329,123 @@ public final class TranscriptMapperEditorView extends EditorView {
 	AlignedTypesDatabase getUserDb() {
 		final UserATDB userATDB = UserATDB.getInstance();
 		if(!userATDB.isATDBLoaded()) {
-			return (new AlignedTypesDatabaseFactory()).createDatabase();
+			return placeholderDb;
 		} else {
 			return userATDB.getATDB();
 		}
 	}
 
+	/**
+	 * Language ids for the session, the default syllabifier language is used if the session
+	 * does not specify a language.
+	 *
+	 * @return list of session language ids
+	 */
+	private List<String> sessionLanguageIds() {
+		final List<String> retVal = new ArrayList<>();
+		final String sessionLanguages = getEditor().getSession().getLanguage();
+		if(sessionLanguages != null && sessionLanguages.trim().length() > 0) {
+			for(String langId:sessionLanguages.split(",")) {
+				final LanguageEntry langEntry = LanguageParser.getInstance().getEntryById(langId.trim());
+				if(langEntry != null && !retVal.contains(langEntry.getId()))
+					retVal.add(langEntry.getId());
+			}
+		} else {
+			final Language defaultLang = SyllabifierLibrary.getInstance().defaultSyllabifierLanguage();
+			if(defaultLang != null)
+				retVal.add(defaultLang.getPrimaryLanguage().getId());
+		}
+		return retVal;
+	}
+
+	/**
+	 * Load user database shards for session languages in the background
+	 */
+	private void loadLanguageShards() {
+		final UserATDB userATDB = UserATDB.getInstance();
+		for(String langId:sessionLanguageIds) {
+			if(userATDB.hasShard(langId)) {
+				userATDB.getShardATDBAsync(langId).thenAccept((db) -> SwingUtilities.invokeLater(this::updateAfterDbLoad));
+			}
+		}
+	}
+
+	/**
+	 * @return loaded user database shards for session languages
+	 */
+	private List<AlignedTypesDatabase> languageShards() {
+		final List<AlignedTypesDatabase> retVal = new ArrayList<>();
+		for(String langId:sessionLanguageIds) {
+			final AlignedTypesDatabase shardDb = UserATDB.getInstance().getLoadedShardATDB(langId);
+			if(shardDb != null)
+				retVal.add(shardDb);
+		}
+		return retVal;
+	}
+
+	private static Map<String, String[]> mergeAlignedTypes(Map<String, String[]> alignedTypes, Map<String, String[]> shardAlignedTypes) {
+		if(shardAlignedTypes.isEmpty()) return alignedTypes;
+		final Map<String, String[]> retVal = new LinkedHashMap<>(alignedTypes);
+		for(String tierName:shardAlignedTypes.keySet()) {
+			final Set<String> types = new LinkedHashSet<>();
+			if(retVal.containsKey(tierName))
+				types.addAll(Arrays.asList(retVal.get(tierName)));
+			types.addAll(Arrays.asList(shardAlignedTypes.get(tierName)));
+			retVal.put(tierName, types.toArray(new String[0]));
+		}
+		return retVal;
+	}
+
+	/**
+	 * Snapshot index used for lookups while the user database is loading
+	 *
+	 * @return snapshot index or null if not available or database has been loaded
+	 */
+	private MappedTypeIndex snapshotIndex() {
+		final UserATDB userATDB = UserATDB.getInstance();
+		return (userATDB.isATDBLoaded() ? null : userATDB.getSnapshotIndex());
+	}
+
+	private Map<String, String[]> alignedTypesForTier(String keyTier, String type) {
+		final MappedTypeIndex index = snapshotIndex();
+		Map<String, String[]> retVal = (index != null ? index.alignedTypesForTier(keyTier, type)
+				: getUserDb().alignedTypesForTier(keyTier, type));
+		for(AlignedTypesDatabase shardDb:languageShards())
+			retVal = mergeAlignedTypes(retVal, shardDb.alignedTypesForTier(keyTier, type));
+		return retVal;
+	}
+
+	private Map<String, String[]> alignedTypesForTier(String keyTier, String type, List<String> tierList) {
+		final MappedTypeIndex index = snapshotIndex();
+		Map<String, String[]> retVal = (index != null ? index.alignedTypesForTier(keyTier, type, tierList)
+				: getUserDb().alignedTypesForTier(keyTier, type, tierList));
+		for(AlignedTypesDatabase shardDb:languageShards())
+			retVal = mergeAlignedTypes(retVal, shardDb.alignedTypesForTier(keyTier, type, tierList));
+		return retVal;
+	}
+
+	private boolean hasAlignedTypes(String[] tierNames, String[] types) {
+		final MappedTypeIndex index = snapshotIndex();
+		if(index != null ? index.hasAlignedTypes(tierNames, types) : getUserDb().hasAlignedTypes(tierNames, types))
+			return true;
+		return languageShards().stream().anyMatch((shardDb) -> shardDb.hasAlignedTypes(tierNames, types));
+	}
+
+	private boolean typeExistsInTier(String type, String tierName) {
+		final MappedTypeIndex index = snapshotIndex();
+		if(index != null ? index.typeExistsInTier(type, tierName) : getUserDb().typeExistsInTier(type, tierName))
+			return true;
+		return languageShards().stream().anyMatch((shardDb) -> shardDb.typeExistsInTier(type, tierName));
+	}
+
+	private boolean alignmentExists(String tierName, String type, String alignedTierName, String alignedType) {
+		final MappedTypeIndex index = snapshotIndex();
+		if(index != null ? index.alignmentExists(tierName, type, alignedTierName, alignedType)
+				: getUserDb().alignmentExists(tierName, type, alignedTierName, alignedType))
+			return true;
+		return languageShards().stream().anyMatch((shardDb) -> shardDb.alignmentExists(tierName, type, alignedTierName, alignedType));
+	}
+
 	void saveUserDbAsync(Runnable onFinish) {
 		final PhonTask task = PhonWorker.invokeOnNewWorker(this::saveUserDb, onFinish, LogUtil::warning);
 		task.setName("Saving aligned morpheme database");
@@ -407,6 +537,15 @@ public final class TranscriptMapperEditorView extends EditorView {
 		toolbar.add(tiersButton);
 	}
 
+	private void toggleSessionWatcher() {
+		final boolean enabled = !ProjectSessionWatcher.isEnabled();
+		ProjectSessionWatcher.setEnabled(enabled);
+		if(enabled)
+			ProjectSessionWatcher.startWatching(getEditor().getProject(), this);
+		else
+			ProjectSessionWatcher.stopWatching(getEditor().getProject());
+	}
+
 	private void setupDatabaseMenu(MenuBuilder builder) {
 		final SaveDatabaseAction saveDatabaseAction = new SaveDatabaseAction(this);
 		if(UserATDB.getInstance().isSaving())
@@ -414,10 +553,20 @@ public final class TranscriptMapperEditorView extends EditorView {
 		builder.addItem(".", saveDatabaseAction).setEnabled(UserATDB.getInstance().isModified() && !UserATDB.getInstance().isSaving());
 		builder.addSeparator(".", "save");
 		builder.addItem(".", new ScanProjectAction(this));
+
+		final PhonUIAction<Void> toggleWatchAct = PhonUIAction.runnable(this::toggleSessionWatcher);
+		toggleWatchAct.putValue(PhonUIAction.NAME, "Keep database in sync with project sessions");
+		toggleWatchAct.putValue(PhonUIAction.SHORT_DESCRIPTION, "Scan project sessions in the background when they are saved");
+		toggleWatchAct.putValue(PhonUIAction.SELECTED_KEY, ProjectSessionWatcher.isEnabled());
+		builder.addItem(".", new JCheckBoxMenuItem(toggleWatchAct));
 		builder.addSeparator(".", "scan");
 		builder.addItem(".", new ImportCSVAction(this));
 		builder.addItem(".", new ExportCSVAction(this));
+		builder.addItem(".", new ExportCSVAction(this, true));
 		builder.addSeparator(".", "csv");
+		builder.addItem(".", new ImportTypeMapAction(this));
+		builder.addItem(".", new ExportTypeMapAction(this));
+		builder.addSeparator(".", "typeMap");
 
 		final JMenu importDictMenu = builder.addMenu(".", "Import IPA dictionary");
 		final MenuBuilder importBuilder = new MenuBuilder(importDictMenu);
@@ -593,7 +742,7 @@ public final class TranscriptMapperEditorView extends EditorView {
 
 	private void setupSearchPanel() {
 		searchableTypesPanel = new SearchableTypesPanel(new AlignedTypesDatabaseFactory().createDatabase(),
-				(type) -> getUserDb().typeExistsInTier(type, keyTier()));
+				(type) -> typeExistsInTier(type, keyTier()));
 		searchableTypesPanel.addPropertyChangeListener(SearchableTypesPanel.SELECTED_TYPE, (e) -> {
 			updateAlignmentOptions();
 		});
@@ -622,7 +771,7 @@ public final class TranscriptMapperEditorView extends EditorView {
 					typeTable.getSelectionModel().setSelectionInterval(row, row);
 
 					final String type = (String)typeTable.getModel().getValueAt(row, 0);
-					final Map<String, String[]> alignedTypes = getUserDb().alignedTypesForTier(keyTier(), type);
+					final Map<String, String[]> alignedTypes = alignedTypesForTier(keyTier(), type);
 					final String[][] optionsForMorpheme = alignmentOptionsForType(type, alignedTypes);
 					final JPopupMenu menu = new JPopupMenu();
 					setupWordMenu(new MenuBuilder(menu), currentState.getLeafCount(), optionsForMorpheme);
@@ -827,7 +976,7 @@ public final class TranscriptMapperEditorView extends EditorView {
 			if(morpheme == null) morpheme = "";
 			List<String> tierList = getVisibleOptionsTiers();
 			Map<String, String[]> alignedTypes =
-					getUserDb().alignedTypesForTier(keyTier(), morpheme, tierList);
+					alignedTypesForTier(keyTier(), morpheme, tierList);
 			final String[][] alignmentOptions = alignmentOptionsForType(morpheme, alignedTypes);
 			alignmentOptionsTableModel.setAlignmentRows(alignmentOptions);
 		}
@@ -1086,7 +1235,7 @@ public final class TranscriptMapperEditorView extends EditorView {
 					}
 					currentWords.put(tierName, tierValue != null ? tierValue.toString() : "");
 				}
-				Map<String, String[]> alignedTypes = db.alignedTypesForTier(keyTier, currentWords.get(keyTier), tierList);
+				Map<String, String[]> alignedTypes = alignedTypesForTier(keyTier, currentWords.get(keyTier), tierList);
 
 				TypeMapNode wrdNode = new TypeMapNode(widx, currentWords, alignedTypes);
 				grpNode.addChild(widx == 0 ? '\u0000' : ' ', wrdNode);
@@ -1217,7 +1366,7 @@ public final class TranscriptMapperEditorView extends EditorView {
 			alignedTypes.put(TypeMapMetadataTier.PROJECT_ID.getTierName(), getEditor().getProject().getUUID().toString());
 
 			final Tuple<String[], String[]> alignedTypeArrays = AlignedTypesUtil.alignedTypesToArrays(alignedTypes);
-			final AlignedTypesEdit edit = new AlignedTypesEdit(getEditor(), this,
+			final AlignedTypesEdit edit = new AlignedTypesEdit(getEditor(), this, getUserDb(),
 					AlignedTypesEdit.Operation.ADD, alignedTypeArrays.getObj1(), alignedTypeArrays.getObj2());
 			getEditor().getUndoSupport().postEdit(edit);
 		}
@@ -1229,10 +1378,25 @@ public final class TranscriptMapperEditorView extends EditorView {
 			final int selectedAlignment = this.alignmentOptionsTable.getSelectedRow();
 			if(selectedAlignment >= 0 && selectedAlignment < this.alignmentOptionsTableModel.alignmentRows.length) {
 				final String[] alignedTypes = this.alignmentOptionsTableModel.alignmentRows[selectedAlignment];
-
-				final AlignedTypesEdit edit = new AlignedTypesEdit(getEditor(), this,
-						AlignedTypesEdit.Operation.REMOVE, getVisibleOptionsTiers().toArray(new String[0]), alignedTypes);
-				getEditor().getUndoSupport().postEdit(edit);
+				final String[] tierNames = getVisibleOptionsTiers().toArray(new String[0]);
+
+				// remove complete stored entries (including hidden and metadata tiers) from user db and shards
+				final List<AlignedTypesDatabase> dbs = new ArrayList<>();
+				dbs.add(getUserDb());
+				dbs.addAll(languageShards());
+				getEditor().getUndoSupport().beginUpdate();
+				for(AlignedTypesDatabase db:dbs) {
+					final Set<List<String>> removed = new HashSet<>();
+					new AlignedTypesEnumerator(db).resolveEntries(tierNames, alignedTypes, (entryTiers, entryTypes) -> {
+						final List<String> key = new ArrayList<>(Arrays.asList(entryTiers));
+						key.addAll(Arrays.asList(entryTypes));
+						if(!removed.add(key)) return;
+						final AlignedTypesEdit edit = new AlignedTypesEdit(getEditor(), this, db,
+								AlignedTypesEdit.Operation.REMOVE, entryTiers, entryTypes);
+						getEditor().getUndoSupport().postEdit(edit);
+					});
+				}
+				getEditor().getUndoSupport().endUpdate();
 			}
 		}
 	}
@@ -1270,7 +1434,7 @@ public final class TranscriptMapperEditorView extends EditorView {
 
 		if(row >= 0) {
 			final String type = (String) searchableTypesPanel.getTypeTable().getModel().getValueAt(row, 0);
-			final Map<String, String[]> alignedTypes = getUserDb().alignedTypesForTier(keyTier(), type);
+			final Map<String, String[]> alignedTypes = alignedTypesForTier(keyTier(), type);
 			final String[][] optionsForMorpheme = alignmentOptionsForType(type, alignedTypes);
 			final JPopupMenu menu = new JPopupMenu();
 			setupWordMenu(new MenuBuilder(menu), currentState.getLeafCount(), optionsForMorpheme);
@@ -1332,7 +1496,8 @@ public final class TranscriptMapperEditorView extends EditorView {
 				final String morpheme = wordNode.getType(tierName);
 				alignedTypes.put(tierName, "*".equals(morpheme) ? "" : wordNode.getType(tierName));
 			}
-			if (!this.getUserDb().hasAlignedTypes(alignedTypes)) {
+			final Tuple<String[], String[]> alignedTypeArrays = AlignedTypesUtil.alignedTypesToArrays(alignedTypes);
+			if (!hasAlignedTypes(alignedTypeArrays.getObj1(), alignedTypeArrays.getObj2())) {
 				builder.addSeparator(".", "add_alignment");
 				final PhonUIAction<Void> onAddAlignedTypesAct = PhonUIAction.eventConsumer(this::onAddAlignedTypes);
 				onAddAlignedTypesAct.putValue(PhonUIAction.NAME, "Add alignment to database");
@@ -1455,6 +1620,7 @@ public final class TranscriptMapperEditorView extends EditorView {
 			return new String[0][];
 
 		final List<String> visibleTiers = getVisibleOptionsTiers();
+		final String[] tierArray = visibleTiers.toArray(new String[0]);
 		final String[][] arrays = new String[visibleTiers.size()][];
 
 		int idx = 0;
@@ -1466,8 +1632,30 @@ public final class TranscriptMapperEditorView extends EditorView {
 		}
 
 		final String[][] product = CartesianProduct.stringArrayProduct(arrays,
-				(set) -> getUserDb().hasAlignedTypes(visibleTiers.toArray(new String[0]), set));
-		return product;
+				(set) -> hasAlignedTypes(tierArray, set));
+		if(product.length < 2) return product;
+
+		// rank at most maxOptions rows by frequency, other options follow in product order
+		final Set<List<String>> options = new HashSet<>();
+		for(String[] row:product)
+			options.add(Arrays.asList(row));
+		final int maxOptions = PrefHelper.getInt(MAX_ALIGNMENT_OPTIONS_PROP, DEFAULT_MAX_ALIGNMENT_OPTIONS);
+		final int k = (maxOptions > 0 ? Math.min(maxOptions, product.length) : product.length);
+		final List<String[]> rankedOptions = UserATDB.getInstance().getFrequencies()
+				.topAlignedTypes(keyTier(), type, visibleTiers, k, options::contains);
+		if(rankedOptions.isEmpty()) return product;
+
+		final Set<List<String>> rankedRows = new HashSet<>();
+		final List<String[]> retVal = new ArrayList<>(product.length);
+		for(String[] row:rankedOptions) {
+			rankedRows.add(Arrays.asList(row));
+			retVal.add(row);
+		}
+		for(String[] row:product) {
+			if(!rankedRows.contains(Arrays.asList(row)))
+				retVal.add(row);
+		}
+		return retVal.toArray(new String[0][]);
 	}
 
 	private class InsertWordForTierData {
@@ -1653,12 +1841,12 @@ public final class TranscriptMapperEditorView extends EditorView {
 
 			if(column == 0) {
 				// check that key exists in database
-				if(!getUserDb().typeExistsInTier(key, keyTier())) {
+				if(!typeExistsInTier(key, keyTier())) {
 					retVal.setFont(retVal.getFont().deriveFont(Font.ITALIC));
 				}
 			} else {
 				// check that link exists to key
-				if(!getUserDb().alignmentExists(keyTier(), key, tier, morpheme) && !"*".equals(morpheme)) {
+				if(!alignmentExists(keyTier(), key, tier, morpheme) && !"*".equals(morpheme)) {
 					retVal.setFont(retVal.getFont().deriveFont(Font.ITALIC));
 				}
 			}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Binary columnar type map file, a compact alternative to csv for exchanging type maps.
+ *
+ * File layout (fixed size values big-endian, var = unsigned LEB128 varint):
+ * <pre>
+ * header  magic(4) version(4) flags(4) columnCount(var) columnName(str)*
+ * block   rowCount(var) dataLength(var) [rawLength(var) if compressed] data
+ * end     rowCount(var) == 0
+ * data    for each column: newStringCount(var) newString(str)* rowId(var)*rowCount
+ * str     byteLength(var) UTF-8 bytes
+ * </pre>
+ * Each column has a dictionary of distinct values shared by all blocks.  A value is added
+ * to the dictionary in the block where it first appears and rows store dictionary ids.
+ * When {@link #FLAG_COMPRESSED} is set block data is deflated.  Rows are written and read
+ * one block at a time.
+ */
+final class TypeMapFile {
+
+	public final static String EXT = ".tmap";
+
+	public final static int FLAG_COMPRESSED = 0x1;
+
+	private final static int MAGIC = 0x544d4150; // 'TMAP'
+
+	private final static int VERSION = 1;
+
+	private final static int BLOCK_ROWS = 8192;
+
+	private TypeMapFile() {
+	}
+
+	private static void writeVarInt(OutputStream out, int value) throws IOException {
+		while((value & ~0x7f) != 0) {
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarInt(InputStream in) throws IOException {
+		int retVal = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			final int b = in.read();
+			if(b < 0) throw new EOFException();
+			retVal |= (b & 0x7f) << shift;
+			if((b & 0x80) == 0) return retVal;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static void writeString(OutputStream out, String str) throws IOException {
+		final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[readVarInt(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Streaming writer, rows are buffered and written one block at a time
+	 */
+	static final class Writer implements Closeable {
+
+		private final DataOutputStream out;
+
+		private final String[] columns;
+
+		private final boolean compressed;
+
+		private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+
+		private final List<String[]> blockRows = new ArrayList<>();
+
+		private final Deflater deflater;
+
+		Writer(File file, String[] columns, boolean compressed) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			this.columns = columns;
+			this.compressed = compressed;
+			this.deflater = (compressed ? new Deflater(Deflater.DEFAULT_COMPRESSION) : null);
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(compressed ? FLAG_COMPRESSED : 0);
+			writeVarInt(out, columns.length);
+			for(String column:columns) {
+				writeString(out, column);
+				dictionaries.add(new HashMap<>());
+			}
+		}
+
+		public String[] getColumns() {
+			return this.columns;
+		}
+
+		/**
+		 * Write row, missing values are written as empty strings
+		 *
+		 * @param row values in column order
+		 * @throws IOException
+		 */
+		public void writeRow(String[] row) throws IOException {
+			blockRows.add(row);
+			if(blockRows.size() >= BLOCK_ROWS)
+				writeBlock();
+		}
+
+		private void writeBlock() throws IOException {
+			if(blockRows.isEmpty()) return;
+
+			final ByteArrayOutputStream data = new ByteArrayOutputStream();
+			final int[] ids = new int[blockRows.size()];
+			for(int col = 0; col < columns.length; col++) {
+				final Map<String, Integer> dictionary = dictionaries.get(col);
+				final List<String> newStrings = new ArrayList<>();
+				for(int i = 0; i < blockRows.size(); i++) {
+					final String[] row = blockRows.get(i);
+					final String value = (col < row.length && row[col] != null ? row[col] : "");
+					Integer id = dictionary.get(value);
+					if(id == null) {
+						id = dictionary.size();
+						dictionary.put(value, id);
+						newStrings.add(value);
+					}
+					ids[i] = id;
+				}
+				writeVarInt(data, newStrings.size());
+				for(String str:newStrings)
+					writeString(data, str);
+				for(int id:ids)
+					writeVarInt(data, id);
+			}
+
+			writeVarInt(out, blockRows.size());
+			if(compressed) {
+				final byte[] raw = data.toByteArray();
+				final ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.length / 2);
+				deflater.reset();
+				deflater.setInput(raw);
+				deflater.finish();
+				final byte[] buffer = new byte[8192];
+				while(!deflater.finished()) {
+					final int len = deflater.deflate(buffer);
+					deflated.write(buffer, 0, len);
+				}
+				writeVarInt(out, deflated.size());
+				writeVarInt(out, raw.length);
+				deflated.writeTo(out);
+			} else {
+				writeVarInt(out, data.size());
+				data.writeTo(out);
+			}
+			blockRows.clear();
+		}
+
+		/**
+		 * Write remaining rows and end of file marker
+		 *
+		 * @throws IOException
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				writeBlock();
+				writeVarInt(out, 0);
+				out.flush();
+			} finally {
+				out.close();
+				if(deflater != null)
+					deflater.end();
+			}
+		}
+
+	}
+
+	/**
+	 * Streaming reader, rows are read one block at a time
+	 */
+	static final class Reader implements Closeable {
+
+		private final FileInputStream fileIn;
+
+		private final DataInputStream in;
+
+		private final String[] columns;
+
+		private final boolean compressed;
+
+		private final List<List<String>> dictionaries = new ArrayList<>();
+
+		private final Inflater inflater;
+
+		private boolean eof = false;
+
+		Reader(File file) throws IOException {
+			this.fileIn = new FileInputStream(file);
+			this.in = new DataInputStream(new BufferedInputStream(fileIn));
+			try {
+				if(in.readInt() != MAGIC)
+					throw new IOException("Not a type map file " + file.getAbsolutePath());
+				final int version = in.readInt();
+				if(version > VERSION)
+					throw new IOException("Unsupported type map file version " + version);
+				this.compressed = (in.readInt() & FLAG_COMPRESSED) != 0;
+				this.columns = new String[readVarInt(in)];
+				for(int i = 0; i < columns.length; i++) {
+					columns[i] = readString(in);
+					dictionaries.add(new ArrayList<>());
+				}
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+			this.inflater = (compressed ? new Inflater() : null);
+		}
+
+		public String[] getColumns() {
+			return this.columns;
+		}
+
+		/**
+		 * @return approximate position in file, may be ahead of the last block read
+		 * @throws IOException
+		 */
+		public long getPosition() throws IOException {
+			return fileIn.getChannel().position();
+		}
+
+		/**
+		 * Read next block of rows
+		 *
+		 * @return rows in column order or null at end of file
+		 * @throws IOException
+		 */
+		public List<String[]> readBlock() throws IOException {
+			if(eof) return null;
+			final int rowCount = readVarInt(in);
+			if(rowCount == 0) {
+				eof = true;
+				return null;
+			}
+
+			final byte[] stored = new byte[readVarInt(in)];
+			final byte[] raw;
+			if(compressed) {
+				raw = new byte[readVarInt(in)];
+				in.readFully(stored);
+				inflater.reset();
+				inflater.setInput(stored);
+				try {
+					int offset = 0;
+					while(offset < raw.length && !inflater.finished()) {
+						final int len = inflater.inflate(raw, offset, raw.length - offset);
+						if(len == 0 && inflater.needsInput())
+							throw new EOFException();
+						offset += len;
+					}
+				} catch (DataFormatException e) {
+					throw new IOException(e);
+				}
+			} else {
+				in.readFully(stored);
+				raw = stored;
+			}
+
+			final List<String[]> retVal = new ArrayList<>(rowCount);
+			for(int i = 0; i < rowCount; i++)
+				retVal.add(new String[columns.length]);
+			final DataInputStream data = new DataInputStream(new ByteArrayInputStream(raw));
+			for(int col = 0; col < columns.length; col++) {
+				final List<String> dictionary = dictionaries.get(col);
+				final int newStringCount = readVarInt(data);
+				for(int i = 0; i < newStringCount; i++)
+					dictionary.add(readString(data));
+				for(int i = 0; i < rowCount; i++) {
+					final int id = readVarInt(data);
+					if(id >= dictionary.size())
+						throw new IOException("Invalid dictionary id " + id);
+					retVal.get(i)[col] = dictionary.get(id);
+				}
+			}
+			return retVal;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+			if(inflater != null)
+				inflater.end();
+		}
+
+	}
+
+}
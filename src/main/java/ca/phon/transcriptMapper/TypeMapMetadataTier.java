@@ -29,6 +29,20 @@ public enum TypeMapMetadataTier {
 		return this.tierName;
 	}
 
+	/**
+	 * Is the given tier name one of the metadata tiers
+	 *
+	 * @param tierName
+	 * @return true if tierName is a metadata tier
+	 */
+	public static boolean isMetadataTier(String tierName) {
+		for(TypeMapMetadataTier metadataTier:values()) {
+			if(metadataTier.getTierName().equals(tierName))
+				return true;
+		}
+		return false;
+	}
+
 	@Override
 	public String toString() {
 		return getTierName();
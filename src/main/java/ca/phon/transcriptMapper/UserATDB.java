@@ -18,12 +18,34 @@ import ca.phon.alignedTypesDatabase.*;
 import ca.phon.app.log.LogUtil;
 import ca.phon.session.SystemTierType;
 import ca.phon.util.PrefHelper;
-import org.apache.commons.io.FileUtils;
+import ca.phon.worker.PhonWorker;
 
 import java.beans.*;
 import java.io.*;
-import java.util.concurrent.locks.ReentrantLock;
-
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * User aligned types database.  Changes made through {@link #addAlignedTypes(String[], String[])}
+ * and {@link #removeAlignedTypes(String[], String[])} are recorded in a journal next to the
+ * database snapshot; a full snapshot is only written when the journal grows past
+ * {@link #JOURNAL_COMPACT_THRESHOLD} entries, when the database was modified directly
+ * (e.g., by an import task,) or at exit.
+ *
+ * Modifications are saved automatically in the background once the database has been
+ * quiet for {@link #AUTOSAVE_QUIET_PERIOD_PROP} seconds, or at most
+ * {@link #AUTOSAVE_MAX_DELAY_PROP} seconds after the first unsaved modification.
+ *
+ * Aligned types for a single language (e.g., imported IPA dictionaries) may be stored in
+ * language shards, see {@link #getShard(String)}.  Shards are only loaded when requested
+ * and are saved along with the user database.
+ *
+ * Occurrence counts of aligned types in scanned sessions and entered in the editor are kept
+ * in {@link #getFrequencies()}, they are loaded on first use and written when the database is saved.
+ */
 public final class UserATDB {
 
 	private final static String USER_DB_FILENAME = "transcriptMapper/typeMap" +
@@ -32,9 +54,62 @@ public final class UserATDB {
 	private final static String BACKUP_DB_FILENAME = "transcriptMapper/typeMap-backup" +
 			AlignedTypesDatabaseIO.DBZ_EXT;
 
-	private final ReentrantLock loadLock = new ReentrantLock();
+	private final static String JOURNAL_FILENAME = "transcriptMapper/typeMap.journal";
+
+	private final static String INDEX_FILENAME = "transcriptMapper/typeMap.idx";
+
+	private final static String FREQUENCY_FILENAME = "transcriptMapper/typeMap.freq";
+
+	private final static String SHARD_FOLDER = "transcriptMapper/shards";
 
-	private AlignedTypesDatabase atdb = null;
+	private final static String SHARD_PREFIX = "typeMap-";
+
+	private final static String SHARD_BACKUP_SUFFIX = "-backup";
+
+	/**
+	 * Number of journal entries after which {@link #saveDb()} will write a new snapshot
+	 */
+	public final static int JOURNAL_COMPACT_THRESHOLD = 10000;
+
+	/**
+	 * Property fired when an {@link AlignedTypesBatch} on the user database is closed,
+	 * the new value is the closed batch
+	 */
+	public final static String BATCH_PROP = "batch";
+
+	public final static String AUTOSAVE_PROP = UserATDB.class.getName() + ".autosave";
+	public final static boolean DEFAULT_AUTOSAVE = true;
+
+	public final static String AUTOSAVE_QUIET_PERIOD_PROP = UserATDB.class.getName() + ".autosaveQuietPeriod";
+	public final static int DEFAULT_AUTOSAVE_QUIET_PERIOD = 30;
+
+	public final static String AUTOSAVE_MAX_DELAY_PROP = UserATDB.class.getName() + ".autosaveMaxDelay";
+	public final static int DEFAULT_AUTOSAVE_MAX_DELAY = 300;
+
+	private final ReentrantLock saveLock = new ReentrantLock();
+
+	// modifications hold the read lock, saves hold the write lock so that the database
+	// is not modified while a snapshot is being written
+	private final ReentrantReadWriteLock modificationLock = new ReentrantReadWriteLock();
+
+	private final Object journalLock = new Object();
+
+	private final UserATDBJournal journal = new UserATDBJournal(getJournalFile());
+
+	private final List<UserATDBJournal.Entry> pendingEntries = new ArrayList<>();
+
+	// set when the database has been modified outside of the journal
+	private volatile boolean snapshotRequired = false;
+
+	// thread currently performing a journaled modification
+	private volatile Thread journalingThread = null;
+
+	// index of snapshot used for lookups until the database has been loaded
+	private MappedTypeIndex snapshotIndex = null;
+
+	private boolean snapshotIndexChecked = false;
+
+	private volatile AlignedTypesDatabase atdb = null;
 
 	private volatile boolean modified = false;
 
@@ -42,13 +117,41 @@ public final class UserATDB {
 
 	private final PropertyChangeSupport propSupport = new PropertyChangeSupport(this);
 
-	private static UserATDB _instance;
+	private ScheduledExecutorService autosaveExecutor;
+
+	private final AtomicBoolean autosaveScheduled = new AtomicBoolean(false);
+
+	// time of first modification since the last save
+	private volatile long firstUnsavedModification = 0L;
+
+	// time of most recent modification
+	private volatile long lastModification = 0L;
+
+	// number of modifications of the loaded database
+	private final AtomicLong modificationCount = new AtomicLong(0L);
+
+	// modification count when the current snapshot was written (or loaded)
+	private volatile long snapshotModificationCount = 0L;
+
+	// shared load of the database, set by the first caller of getATDBAsync()
+	private final AtomicReference<CompletableFuture<AlignedTypesDatabase>> loadFuture = new AtomicReference<>();
+
+	// language shards by language id
+	private final Map<String, UserATDBShard> shards = new ConcurrentHashMap<>();
+
+	private final AlignedTypeFrequencies frequencies = new AlignedTypeFrequencies(getFrequencyFile());
+
+	// number of open batches, modification events are deferred until the last one is closed
+	private final AtomicInteger batchDepth = new AtomicInteger(0);
+
+	private volatile boolean modifiedDuringBatch = false;
+
+	private static class InstanceHolder {
+		private final static UserATDB INSTANCE = new UserATDB();
+	}
 
 	public static UserATDB getInstance() {
-		if(_instance == null) {
-			_instance = new UserATDB();
-		}
-		return _instance;
+		return InstanceHolder.INSTANCE;
 	}
 
 	private UserATDB() {
@@ -59,15 +162,17 @@ public final class UserATDB {
 	}
 
 	public boolean isModified() {
-		return this.modified;
+		return this.modified || frequencies.isModified() || shards.values().stream().anyMatch(UserATDBShard::isModified);
 	}
 
 	public boolean isSaving() { return this.saving; }
 
 	/**
-	 * Return the user's aligned types database.
+	 * Return the user's aligned types database, loading it if necessary.  This method
+	 * will block until the database has been loaded, use {@link #getATDBAsync()} from
+	 * the event dispatch thread.
 	 *
-	 * @return ATDB for project, null if project has not been loaded
+	 * @return ATDB for user, null if the database could not be loaded
 	 */
 	public AlignedTypesDatabase getATDB() {
 		if(!isATDBLoaded()) {
@@ -80,6 +185,27 @@ public final class UserATDB {
 		return atdb;
 	}
 
+	/**
+	 * Return a future which is completed when the user's aligned types database has been loaded.
+	 * The database is loaded on a background worker by the first caller, all other callers
+	 * share the same load.
+	 *
+	 * @return future for user ATDB
+	 */
+	public CompletableFuture<AlignedTypesDatabase> getATDBAsync() {
+		CompletableFuture<AlignedTypesDatabase> future = loadFuture.get();
+		if(future == null) {
+			final CompletableFuture<AlignedTypesDatabase> newFuture = new CompletableFuture<>();
+			if(loadFuture.compareAndSet(null, newFuture)) {
+				PhonWorker.invokeOnNewWorker(() -> performLoad(newFuture), () -> {});
+				future = newFuture;
+			} else {
+				future = loadFuture.get();
+			}
+		}
+		return future;
+	}
+
 	private File getDbFile() {
 		final File dbFile = new File(PrefHelper.getUserDataFolder(), USER_DB_FILENAME);
 		return dbFile;
@@ -90,22 +216,212 @@ public final class UserATDB {
 		return dbFile;
 	}
 
+	private File getIndexFile() {
+		final File indexFile = new File(PrefHelper.getUserDataFolder(), INDEX_FILENAME);
+		return indexFile;
+	}
+
+	private static File getFrequencyFile() {
+		final File frequencyFile = new File(PrefHelper.getUserDataFolder(), FREQUENCY_FILENAME);
+		return frequencyFile;
+	}
+
+	private static File getJournalFile() {
+		final File journalFile = new File(PrefHelper.getUserDataFolder(), JOURNAL_FILENAME);
+		return journalFile;
+	}
+
 	/**
-	 * Load the project {@link AlignedTypesDatabase}
+	 * Load the user {@link AlignedTypesDatabase}, blocks until the database has been loaded.
 	 */
 	public void loadATDB() throws IOException {
-		if(isATDBLoaded()) return;
-		loadLock.lock();
-		final File projectDbFile = getDbFile();
-		if(projectDbFile.exists()) {
-			this.atdb = AlignedTypesDatabaseIO.readFromFile(projectDbFile);
-		} else {
-			this.atdb = (new AlignedTypesDatabaseFactory()).createDatabase();
-			setupTierDescriptionTree(this.atdb);
+		try {
+			getATDBAsync().join();
+		} catch (CompletionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private void performLoad(CompletableFuture<AlignedTypesDatabase> future) {
+		try {
+			final File projectDbFile = SnapshotWriter.resolveSnapshot(getDbFile(), backupDbFile());
+			final AlignedTypesDatabase db;
+			if(projectDbFile != null) {
+				db = AlignedTypesDatabaseIO.readFromFile(projectDbFile);
+			} else {
+				db = (new AlignedTypesDatabaseFactory()).createDatabase();
+				setupTierDescriptionTree(db);
+			}
+			if(journal.exists()) {
+				final int numEntries = journal.replay(db);
+				LogUtil.info(String.format("[TranscriptMapper] Replayed %d journal entries", numEntries));
+			}
+			db.addDatabaseListener(listener);
+			this.atdb = db;
+			synchronized (this) {
+				// index no longer required
+				this.snapshotIndex = null;
+			}
+			future.complete(db);
+			propSupport.firePropertyChange("loaded", false, true);
+
+			// loaded database matches snapshot, write index if missing once idle
+			if(projectDbFile == getDbFile() && !journal.exists())
+				scheduleSnapshotIndex();
+		} catch (IOException | RuntimeException e) {
+			// allow another attempt on next request
+			loadFuture.compareAndSet(future, null);
+			future.completeExceptionally(e);
 		}
-		this.atdb.addDatabaseListener(listener);
-		loadLock.unlock();
-		propSupport.firePropertyChange("loaded", false, true);
+	}
+
+	/**
+	 * Occurrence counts for aligned types in the user database.  Counts are updated by
+	 * session scans, see {@link AlignedTypesBatch#addOccurrences(Map, int)}, and by
+	 * {@link AlignedTypesEdit}s; imported entries are not counted.
+	 *
+	 * @return aligned type frequencies
+	 */
+	public AlignedTypeFrequencies getFrequencies() {
+		return this.frequencies;
+	}
+
+	/**
+	 * Return the memory-mapped index of the database snapshot.  The index may be used for
+	 * lookups while the database is being loaded.
+	 *
+	 * @return snapshot index or <code>null</code> if the database has been loaded or the
+	 *  index is not available/out of date
+	 */
+	public synchronized MappedTypeIndex getSnapshotIndex() {
+		if(isATDBLoaded()) return null;
+		if(!snapshotIndexChecked) {
+			snapshotIndexChecked = true;
+			// index does not include journal entries
+			if(!journal.exists()) {
+				try {
+					snapshotIndex = MappedTypeIndex.open(getIndexFile(), getDbFile());
+				} catch (IOException e) {
+					LogUtil.warning("[TranscriptMapper] Unable to open snapshot index: " + e.getLocalizedMessage(), e);
+				}
+			}
+		}
+		return snapshotIndex;
+	}
+
+	/**
+	 * Schedule writing the snapshot index once the database is idle.  The index is built
+	 * off the save path as it requires a full pass over the database.
+	 */
+	private void scheduleSnapshotIndex() {
+		getAutosaveExecutor().schedule(this::writeSnapshotIndex,
+				PrefHelper.getInt(AUTOSAVE_QUIET_PERIOD_PROP, DEFAULT_AUTOSAVE_QUIET_PERIOD), TimeUnit.SECONDS);
+	}
+
+	private void writeSnapshotIndex() {
+		// database no longer matches snapshot, next snapshot will schedule a new index
+		if(!isATDBLoaded() || modificationCount.get() != snapshotModificationCount) return;
+
+		final long quietPeriod = TimeUnit.SECONDS.toMillis(
+				PrefHelper.getInt(AUTOSAVE_QUIET_PERIOD_PROP, DEFAULT_AUTOSAVE_QUIET_PERIOD));
+		if(isSaving() || batchDepth.get() > 0 || System.currentTimeMillis() - lastModification < quietPeriod) {
+			getAutosaveExecutor().schedule(this::writeSnapshotIndex, quietPeriod, TimeUnit.MILLISECONDS);
+			return;
+		}
+
+		final File indexFile = getIndexFile();
+		final File dbFile = getDbFile();
+		try {
+			if(MappedTypeIndex.isCurrent(indexFile, dbFile)) return;
+
+			final long startTime = System.currentTimeMillis();
+			MappedTypeIndex.write(this.atdb, indexFile, dbFile);
+			if(modificationCount.get() != snapshotModificationCount) {
+				// modified while writing, index may include entries not in snapshot
+				Files.deleteIfExists(indexFile.toPath());
+				return;
+			}
+			LogUtil.info(String.format("[TranscriptMapper] Wrote snapshot index in %d ms", System.currentTimeMillis() - startTime));
+		} catch (IOException | RuntimeException e) {
+			LogUtil.warning("[TranscriptMapper] Unable to write snapshot index: " + e.getLocalizedMessage(), e);
+			try {
+				Files.deleteIfExists(indexFile.toPath());
+			} catch (IOException e2) {
+				LogUtil.warning(e2);
+			}
+		}
+	}
+
+	private File getShardFolder() {
+		return new File(PrefHelper.getUserDataFolder(), SHARD_FOLDER);
+	}
+
+	private static String shardFilename(String languageId) {
+		return SHARD_PREFIX + languageId.replaceAll("[^A-Za-z0-9_-]", "_");
+	}
+
+	/**
+	 * Return the shard for the given language.  The shard is not loaded until
+	 * requested using {@link UserATDBShard#getATDBAsync()}.
+	 *
+	 * @param languageId
+	 * @return language shard
+	 */
+	UserATDBShard getShard(String languageId) {
+		return shards.computeIfAbsent(languageId, (langId) -> {
+			final String filename = shardFilename(langId);
+			return new UserATDBShard(langId,
+					new File(getShardFolder(), filename + AlignedTypesDatabaseIO.DBZ_EXT),
+					new File(getShardFolder(), filename + SHARD_BACKUP_SUFFIX + AlignedTypesDatabaseIO.DBZ_EXT),
+					this::fireModified);
+		});
+	}
+
+	/**
+	 * Does a shard exist for the given language
+	 *
+	 * @param languageId
+	 * @return true if a shard has been loaded or saved for the given language
+	 */
+	public boolean hasShard(String languageId) {
+		final UserATDBShard shard = shards.get(languageId);
+		if(shard != null && shard.isLoaded()) return true;
+		return new File(getShardFolder(), shardFilename(languageId) + AlignedTypesDatabaseIO.DBZ_EXT).exists()
+				|| new File(getShardFolder(), shardFilename(languageId) + SHARD_BACKUP_SUFFIX + AlignedTypesDatabaseIO.DBZ_EXT).exists();
+	}
+
+	/**
+	 * Return the shard database for the given language, loading it if necessary.
+	 * This method will block until the shard has been loaded.
+	 *
+	 * @param languageId
+	 * @return shard database, null if the shard could not be loaded
+	 */
+	public AlignedTypesDatabase getShardATDB(String languageId) {
+		return getShard(languageId).getATDB();
+	}
+
+	/**
+	 * Return a future which is completed when the shard for the given language has been loaded.
+	 *
+	 * @param languageId
+	 * @return future for shard database
+	 */
+	public CompletableFuture<AlignedTypesDatabase> getShardATDBAsync(String languageId) {
+		return getShard(languageId).getATDBAsync();
+	}
+
+	/**
+	 * Return the shard database for the given language if it has been loaded.
+	 *
+	 * @param languageId
+	 * @return shard database or null if not loaded
+	 */
+	public AlignedTypesDatabase getLoadedShardATDB(String languageId) {
+		final UserATDBShard shard = shards.get(languageId);
+		return (shard != null ? shard.getLoadedATDB() : null);
 	}
 
 	private void setupTierDescriptionTree(AlignedTypesDatabase db) {
@@ -115,24 +431,288 @@ public final class UserATDB {
 	}
 
 	public void backupDb() throws IOException {
-		FileUtils.copyFile(getDbFile(), backupDbFile());
+		SnapshotWriter.copySnapshot(getDbFile(), backupDbFile());
 	}
 
-	public void saveDb() throws  IOException {
+	/**
+	 * Add aligned types to the database, the operation is recorded in the journal.
+	 *
+	 * @param tierNames
+	 * @param types
+	 */
+	public void addAlignedTypes(String[] tierNames, String[] types) {
+		performJournaledOperation(AlignedTypesEdit.Operation.ADD, tierNames, types);
+	}
+
+	/**
+	 * Remove aligned types from the database, the operation is recorded in the journal.
+	 * Aligned types are also removed from loaded shards containing them.
+	 *
+	 * @param tierNames
+	 * @param types
+	 */
+	public void removeAlignedTypes(String[] tierNames, String[] types) {
+		performJournaledOperation(AlignedTypesEdit.Operation.REMOVE, tierNames, types);
+
+		final Lock lock = getModificationLock();
+		lock.lock();
+		try {
+			for(UserATDBShard shard:shards.values()) {
+				final AlignedTypesDatabase shardDb = shard.getLoadedATDB();
+				if(shardDb != null && shardDb.hasAlignedTypes(tierNames, types))
+					shardDb.removeAlignedTypes(tierNames, types);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void performJournaledOperation(AlignedTypesEdit.Operation operation, String[] tierNames, String[] types) {
+		final AlignedTypesDatabase db = getATDB();
+		final Lock lock = getModificationLock();
+		lock.lock();
+		try {
+			performJournaledOperation(db, operation, tierNames, types);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Perform operation on the user database or one of its loaded language shards.  Only
+	 * db is modified; operations on the user database are recorded in the journal, shards
+	 * are written with their next snapshot.
+	 *
+	 * @param db
+	 * @param operation
+	 * @param tierNames
+	 * @param types
+	 * @return false if db is no longer part of the user database
+	 */
+	boolean performOperation(AlignedTypesDatabase db, AlignedTypesEdit.Operation operation,
+	                         String[] tierNames, String[] types) {
+		final Lock lock = getModificationLock();
+		lock.lock();
+		try {
+			if(isMainDatabase(db)) {
+				performJournaledOperation(db, operation, tierNames, types);
+			} else if(isUserDatabase(db)) {
+				switch (operation) {
+					case ADD -> db.addAlignedTypes(tierNames, types);
+					case REMOVE -> db.removeAlignedTypes(tierNames, types);
+				}
+			} else {
+				return false;
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Perform operation on db and record it in the journal.  db must be the loaded user
+	 * database and the caller must hold the {@link #getModificationLock() modification lock}.
+	 *
+	 * @param db
+	 * @param operation
+	 * @param tierNames
+	 * @param types
+	 */
+	void performJournaledOperation(AlignedTypesDatabase db, AlignedTypesEdit.Operation operation,
+	                               String[] tierNames, String[] types) {
+		synchronized (journalLock) {
+			journalingThread = Thread.currentThread();
+			try {
+				switch (operation) {
+					case ADD -> db.addAlignedTypes(tierNames, types);
+					case REMOVE -> db.removeAlignedTypes(tierNames, types);
+				}
+				pendingEntries.add(new UserATDBJournal.Entry(operation, tierNames, types));
+			} finally {
+				journalingThread = null;
+			}
+		}
+	}
+
+	/**
+	 * Save changes to the user database and modified language shards.  Pending journal entries
+	 * are appended to the journal unless a new snapshot is required.
+	 *
+	 * @throws IOException
+	 */
+	public void saveDb() throws IOException {
+		saveDb(false);
+	}
+
+	/**
+	 * Write a new snapshot of the user database and clear the journal.
+	 *
+	 * @throws IOException
+	 */
+	public void compactDb() throws IOException {
+		saveDb(true);
+	}
+
+	/**
+	 * Save database
+	 *
+	 * @param forceSnapshot
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	private long saveDb(boolean forceSnapshot) throws IOException {
+		saveLock.lock();
+		// wait for modifications in progress, block new modifications until saved
+		modificationLock.writeLock().lock();
 		this.saving = true;
-		final File dbFile = getDbFile();
-		final File parentFolder = dbFile.getParentFile();
-		if(!parentFolder.exists()) {
-			parentFolder.mkdirs();
+		try {
+			long bytesWritten = 0L;
+			for(UserATDBShard shard:shards.values()) {
+				bytesWritten += shard.save();
+			}
+			if(!isATDBLoaded()) return bytesWritten;
+
+			final File dbFile = getDbFile();
+			final File parentFolder = dbFile.getParentFile();
+			if(!parentFolder.exists()) {
+				parentFolder.mkdirs();
+			}
+
+			final List<UserATDBJournal.Entry> entries;
+			final boolean writeSnapshot;
+			final boolean oldVal;
+			synchronized (journalLock) {
+				entries = new ArrayList<>(pendingEntries);
+				pendingEntries.clear();
+				// forced snapshots are skipped if the snapshot is up to date
+				writeSnapshot = (forceSnapshot && journal.getEntryCount() + entries.size() > 0)
+						|| snapshotRequired || !dbFile.exists()
+						|| journal.getEntryCount() + entries.size() > JOURNAL_COMPACT_THRESHOLD;
+				snapshotRequired = false;
+				oldVal = this.modified;
+				this.modified = false;
+			}
+
+			try {
+				if(writeSnapshot) {
+					bytesWritten += SnapshotWriter.writeSnapshot(this.atdb, dbFile, backupDbFile());
+					// modifications are blocked while saving
+					snapshotModificationCount = modificationCount.get();
+					journal.reset();
+					scheduleSnapshotIndex();
+				} else {
+					bytesWritten += journal.append(entries);
+				}
+			} catch (IOException e) {
+				synchronized (journalLock) {
+					pendingEntries.addAll(0, entries);
+					snapshotRequired |= writeSnapshot;
+					this.modified = true;
+				}
+				throw e;
+			}
+
+			try {
+				writeFrequencies();
+			} catch (IOException e) {
+				// counts only affect the order of suggestions, written with the next save
+				LogUtil.warning("[TranscriptMapper] Unable to write aligned type frequencies: " + e.getLocalizedMessage(), e);
+			}
+
+			propSupport.firePropertyChange("modified", oldVal, this.modified);
+			return bytesWritten;
+		} finally {
+			this.saving = false;
+			modificationLock.writeLock().unlock();
+			saveLock.unlock();
 		}
-		if(dbFile.exists())
-			backupDb();
-		AlignedTypesDatabaseIO.writeToFile(this.atdb, dbFile);
+	}
 
-		boolean oldVal = this.modified;
-		this.modified = false;
-		this.saving = false;
-		propSupport.firePropertyChange("modified", oldVal, this.modified);
+	/**
+	 * Write occurrence counts if modified.  Unlike {@link #saveDb()} a failure to write
+	 * the counts is reported to the caller.
+	 *
+	 * @throws IOException
+	 */
+	void saveFrequencies() throws IOException {
+		saveLock.lock();
+		modificationLock.writeLock().lock();
+		try {
+			if(isATDBLoaded())
+				writeFrequencies();
+		} finally {
+			modificationLock.writeLock().unlock();
+			saveLock.unlock();
+		}
+	}
+
+	/**
+	 * Write occurrence counts if modified, modifications must be blocked while writing
+	 */
+	private void writeFrequencies() throws IOException {
+		if(frequencies.isModified())
+			frequencies.write(this.atdb);
+	}
+
+	public boolean isAutosaveEnabled() {
+		return PrefHelper.getBoolean(AUTOSAVE_PROP, DEFAULT_AUTOSAVE);
+	}
+
+	private synchronized ScheduledExecutorService getAutosaveExecutor() {
+		if(autosaveExecutor == null) {
+			autosaveExecutor = Executors.newSingleThreadScheduledExecutor((r) -> {
+				final Thread thread = new Thread(r, "TranscriptMapper-autosave");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			});
+		}
+		return autosaveExecutor;
+	}
+
+	/**
+	 * Record a modification and schedule an autosave if one is not already pending.
+	 * Bursts of modifications are merged into a single write.
+	 */
+	private void scheduleAutosave() {
+		final long now = System.currentTimeMillis();
+		lastModification = now;
+		if(!isAutosaveEnabled()) return;
+		if(autosaveScheduled.compareAndSet(false, true)) {
+			firstUnsavedModification = now;
+			getAutosaveExecutor().schedule(this::autosave,
+					PrefHelper.getInt(AUTOSAVE_QUIET_PERIOD_PROP, DEFAULT_AUTOSAVE_QUIET_PERIOD), TimeUnit.SECONDS);
+		}
+	}
+
+	private void autosave() {
+		final long quietPeriod = TimeUnit.SECONDS.toMillis(
+				PrefHelper.getInt(AUTOSAVE_QUIET_PERIOD_PROP, DEFAULT_AUTOSAVE_QUIET_PERIOD));
+		final long maxDelay = TimeUnit.SECONDS.toMillis(
+				PrefHelper.getInt(AUTOSAVE_MAX_DELAY_PROP, DEFAULT_AUTOSAVE_MAX_DELAY));
+		final long now = System.currentTimeMillis();
+		final long quietRemaining = (lastModification + quietPeriod) - now;
+		final long maxDelayRemaining = (firstUnsavedModification + maxDelay) - now;
+
+		// wait for modifications to settle, for open batches to close or for a save already in progress
+		final boolean busy = isSaving() || batchDepth.get() > 0;
+		if(busy || (quietRemaining > 0 && maxDelayRemaining > 0)) {
+			final long delay = busy ? quietPeriod : Math.min(quietRemaining, maxDelayRemaining);
+			getAutosaveExecutor().schedule(this::autosave, delay, TimeUnit.MILLISECONDS);
+			return;
+		}
+
+		autosaveScheduled.set(false);
+		if(!isModified()) return;
+		try {
+			final long startTime = System.currentTimeMillis();
+			final long bytesWritten = saveDb(false);
+			LogUtil.info(String.format("[TranscriptMapper] Autosaved user aligned types database (%d bytes in %d ms)",
+					bytesWritten, System.currentTimeMillis() - startTime));
+		} catch (IOException e) {
+			LogUtil.warning("[TranscriptMapper] Autosave failed: " + e.getLocalizedMessage(), e);
+		}
 	}
 
 	public void addPropertyChangeListener(PropertyChangeListener listener) {
@@ -163,10 +743,86 @@ public final class UserATDB {
 		return propSupport.hasListeners(propertyName);
 	}
 
-	private final AlignedTypesDatabaseListener listener = (evt) -> {
+	/**
+	 * Is the given database the user database or one of its loaded language shards
+	 *
+	 * @param db
+	 * @return true if db belongs to the user database
+	 */
+	public boolean isUserDatabase(AlignedTypesDatabase db) {
+		if(db == null) return false;
+		if(db == this.atdb) return true;
+		return shards.values().stream().anyMatch((shard) -> shard.getLoadedATDB() == db);
+	}
+
+	/**
+	 * Is the given database the loaded user database, excluding language shards
+	 *
+	 * @param db
+	 * @return true if db is the user database
+	 */
+	boolean isMainDatabase(AlignedTypesDatabase db) {
+		return db != null && db == this.atdb;
+	}
+
+	/**
+	 * Lock held while modifying the user database or one of its shards outside of
+	 * {@link #addAlignedTypes(String[], String[])} and {@link #removeAlignedTypes(String[], String[])}.
+	 * Snapshots are not written while the lock is held.  The lock must not be held when
+	 * calling {@link #saveDb()}.
+	 *
+	 * @return modification lock
+	 */
+	Lock getModificationLock() {
+		return modificationLock.readLock();
+	}
+
+	/**
+	 * Called when a batch on the user database is opened.  Modification events are
+	 * deferred until all batches have been closed.
+	 *
+	 * @param batch
+	 */
+	void beginBatch(AlignedTypesBatch batch) {
+		batchDepth.incrementAndGet();
+	}
+
+	/**
+	 * Called when a batch on the user database is closed.  A {@link #BATCH_PROP} event
+	 * is fired with the batch summary and a single modification event is fired once
+	 * all batches have been closed.
+	 *
+	 * @param batch
+	 */
+	void endBatch(AlignedTypesBatch batch) {
+		LogUtil.info("[TranscriptMapper] Batch complete: " + batch);
+		if(batchDepth.decrementAndGet() == 0 && modifiedDuringBatch) {
+			modifiedDuringBatch = false;
+			// modified flag was set during the batch, the event reports the change from before the batch
+			propSupport.firePropertyChange("modified", false, this.modified);
+			scheduleAutosave();
+		}
+		propSupport.firePropertyChange(BATCH_PROP, null, batch);
+	}
+
+	private void fireModified() {
 		boolean oldVal = this.modified;
 		this.modified = true;
+		// only the event is deferred while a batch is open
+		if(batchDepth.get() > 0) {
+			modifiedDuringBatch = true;
+			return;
+		}
+
 		propSupport.firePropertyChange("modified", oldVal, this.modified);
+		scheduleAutosave();
+	}
+
+	private final AlignedTypesDatabaseListener listener = (evt) -> {
+		modificationCount.incrementAndGet();
+		if(journalingThread != Thread.currentThread())
+			snapshotRequired = true;
+		fireModified();
 	};
 
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.AlignedTypesDatabase;
+import ca.phon.app.log.LogUtil;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * Append-only journal of add/remove operations performed on the user
+ * {@link AlignedTypesDatabase} since the last snapshot was written.  The journal
+ * is replayed on top of the snapshot when the database is loaded.
+ */
+final class UserATDBJournal {
+
+	private final static int MAGIC = 0x41544A31; // 'ATJ1'
+
+	/**
+	 * Journal entry
+	 */
+	static final class Entry {
+
+		private final AlignedTypesEdit.Operation operation;
+
+		private final String[] tierNames;
+
+		private final String[] types;
+
+		Entry(AlignedTypesEdit.Operation operation, String[] tierNames, String[] types) {
+			this.operation = operation;
+			this.tierNames = tierNames;
+			this.types = types;
+		}
+
+		public AlignedTypesEdit.Operation getOperation() {
+			return this.operation;
+		}
+
+		public String[] getTierNames() {
+			return this.tierNames;
+		}
+
+		public String[] getTypes() {
+			return this.types;
+		}
+
+	}
+
+	private final File file;
+
+	private int entryCount = 0;
+
+	UserATDBJournal(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Number of entries currently in the journal file
+	 *
+	 * @return entry count
+	 */
+	public int getEntryCount() {
+		return this.entryCount;
+	}
+
+	public boolean exists() {
+		return this.file.exists() && this.file.length() > 0;
+	}
+
+	/**
+	 * Append entries to the end of the journal.  Data is synced to disk before returning.
+	 * If writing fails the journal is truncated to its previous length so a partially
+	 * written entry is not followed by entries appended later.
+	 *
+	 * @param entries
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	public long append(List<Entry> entries) throws IOException {
+		if(entries.isEmpty()) return 0L;
+
+		final boolean writeHeader = !exists();
+		final long startLength = writeHeader ? 0L : this.file.length();
+		try(final FileOutputStream fout = new FileOutputStream(this.file, true);
+		    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout))) {
+			if(writeHeader)
+				out.writeInt(MAGIC);
+			for(Entry entry:entries) {
+				out.writeByte(entry.getOperation().ordinal());
+				out.writeInt(entry.getTierNames().length);
+				for(String tierName:entry.getTierNames())
+					out.writeUTF(tierName);
+				for(String type:entry.getTypes())
+					out.writeUTF(type == null ? "" : type);
+			}
+			out.flush();
+			fout.getFD().sync();
+		} catch (IOException e) {
+			truncate(startLength, e);
+			throw e;
+		}
+		this.entryCount += entries.size();
+		return this.file.length() - startLength;
+	}
+
+	/**
+	 * Truncate journal after a failed append
+	 *
+	 * @param length
+	 * @param cause
+	 */
+	private void truncate(long length, IOException cause) {
+		try {
+			truncate(length);
+		} catch (IOException e) {
+			cause.addSuppressed(e);
+		}
+	}
+
+	private void truncate(long length) throws IOException {
+		try(final RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+			raf.setLength(length);
+			raf.getFD().sync();
+		}
+	}
+
+	/**
+	 * Input stream keeping track of the number of bytes read
+	 */
+	private final static class CountingInputStream extends FilterInputStream {
+
+		private long position = 0L;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int retVal = super.read();
+			if(retVal >= 0) ++position;
+			return retVal;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int retVal = super.read(b, off, len);
+			if(retVal > 0) position += retVal;
+			return retVal;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final long retVal = super.skip(n);
+			position += retVal;
+			return retVal;
+		}
+
+		long getPosition() {
+			return this.position;
+		}
+
+	}
+
+	/**
+	 * Replay journal entries on the given database.  A truncated tail (e.g., from
+	 * a crash during append) is removed from the file so entries appended later
+	 * follow the last complete entry.
+	 *
+	 * @param db
+	 * @return number of entries replayed
+	 * @throws IOException if the journal header is invalid or a truncated tail could not be removed
+	 */
+	public int replay(AlignedTypesDatabase db) throws IOException {
+		this.entryCount = 0;
+		if(!exists()) return 0;
+
+		final AlignedTypesEdit.Operation[] operations = AlignedTypesEdit.Operation.values();
+		final StringPool stringPool = new StringPool();
+		// end of last complete entry (or header)
+		long validLength = 0L;
+		boolean truncated = false;
+		try(final CountingInputStream cin = new CountingInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+		    final DataInputStream in = new DataInputStream(cin)) {
+			if(in.readInt() != MAGIC)
+				throw new IOException("Invalid journal file " + this.file.getAbsolutePath());
+			validLength = cin.getPosition();
+			while(true) {
+				final int op = in.read();
+				if(op < 0) break;
+				if(op >= operations.length)
+					throw new IOException("Invalid journal entry in " + this.file.getAbsolutePath());
+				final int numTiers = in.readInt();
+				final String[] tierNames = new String[numTiers];
+				for(int i = 0; i < numTiers; i++)
+					tierNames[i] = stringPool.intern(in.readUTF());
+				final String[] types = new String[numTiers];
+				for(int i = 0; i < numTiers; i++)
+					types[i] = stringPool.internMetadata(tierNames[i], in.readUTF());
+
+				switch (operations[op]) {
+					case ADD -> db.addAlignedTypes(tierNames, types);
+					case REMOVE -> db.removeAlignedTypes(tierNames, types);
+				}
+				++this.entryCount;
+				validLength = cin.getPosition();
+			}
+		} catch (EOFException e) {
+			LogUtil.warning("[TranscriptMapper] Removing truncated journal entry in " + this.file.getAbsolutePath());
+			truncated = true;
+		}
+		if(truncated)
+			truncate(validLength);
+		return this.entryCount;
+	}
+
+	/**
+	 * Remove all entries from the journal, called after a new snapshot has been written.
+	 *
+	 * @throws IOException
+	 */
+	public void reset() throws IOException {
+		if(this.file.exists() && !this.file.delete())
+			throw new IOException("Unable to remove journal file " + this.file.getAbsolutePath());
+		this.entryCount = 0;
+	}
+
+}
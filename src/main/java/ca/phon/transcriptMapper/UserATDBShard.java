@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2005-2022 Gregory Hedlund & Yvan Rose
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.phon.transcriptMapper;
+
+import ca.phon.alignedTypesDatabase.*;
+import ca.phon.app.log.LogUtil;
+import ca.phon.session.SystemTierType;
+import ca.phon.worker.PhonWorker;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Language shard of the user aligned types database.  Each shard holds the aligned types
+ * for a single language (e.g., an imported IPA dictionary) in its own snapshot and is only
+ * loaded when requested.
+ */
+final class UserATDBShard {
+
+	private final String languageId;
+
+	private final File dbFile;
+
+	private final File backupFile;
+
+	private final Runnable onModified;
+
+	private volatile AlignedTypesDatabase atdb = null;
+
+	private volatile boolean modified = false;
+
+	private final Object saveLock = new Object();
+
+	private final AtomicReference<CompletableFuture<AlignedTypesDatabase>> loadFuture = new AtomicReference<>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param languageId
+	 * @param dbFile
+	 * @param backupFile
+	 * @param onModified called when the shard database is modified
+	 */
+	UserATDBShard(String languageId, File dbFile, File backupFile, Runnable onModified) {
+		this.languageId = languageId;
+		this.dbFile = dbFile;
+		this.backupFile = backupFile;
+		this.onModified = onModified;
+	}
+
+	public String getLanguageId() {
+		return this.languageId;
+	}
+
+	public File getDbFile() {
+		return this.dbFile;
+	}
+
+	/**
+	 * @return true if the shard has been saved to disk
+	 */
+	public boolean exists() {
+		return SnapshotWriter.resolveSnapshot(dbFile, backupFile) != null;
+	}
+
+	public boolean isLoaded() {
+		return this.atdb != null;
+	}
+
+	public boolean isModified() {
+		return this.modified;
+	}
+
+	/**
+	 * Return the shard database, loading it if necessary.  Blocks until the
+	 * database has been loaded.
+	 *
+	 * @return shard database, null if the database could not be loaded
+	 */
+	public AlignedTypesDatabase getATDB() {
+		try {
+			return getATDBAsync().join();
+		} catch (CompletionException e) {
+			LogUtil.severe(e.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * @return shard database if loaded, null otherwise
+	 */
+	public AlignedTypesDatabase getLoadedATDB() {
+		return this.atdb;
+	}
+
+	/**
+	 * Return a future which is completed when the shard has been loaded.  The shard is loaded
+	 * on a background worker by the first caller.
+	 *
+	 * @return future for shard database
+	 */
+	public CompletableFuture<AlignedTypesDatabase> getATDBAsync() {
+		CompletableFuture<AlignedTypesDatabase> future = loadFuture.get();
+		if(future == null) {
+			final CompletableFuture<AlignedTypesDatabase> newFuture = new CompletableFuture<>();
+			if(loadFuture.compareAndSet(null, newFuture)) {
+				PhonWorker.invokeOnNewWorker(() -> performLoad(newFuture), () -> {});
+				future = newFuture;
+			} else {
+				future = loadFuture.get();
+			}
+		}
+		return future;
+	}
+
+	private void performLoad(CompletableFuture<AlignedTypesDatabase> future) {
+		try {
+			final long startTime = System.currentTimeMillis();
+			final File snapshotFile = SnapshotWriter.resolveSnapshot(dbFile, backupFile);
+			final AlignedTypesDatabase db;
+			if(snapshotFile != null) {
+				db = AlignedTypesDatabaseIO.readFromFile(snapshotFile);
+			} else {
+				db = (new AlignedTypesDatabaseFactory()).createDatabase();
+				db.addUserTier(SystemTierType.Orthography.getName());
+				db.addUserTier(SystemTierType.IPATarget.getName());
+				db.addUserTier(SystemTierType.IPAActual.getName());
+			}
+			db.addDatabaseListener((evt) -> {
+				this.modified = true;
+				this.onModified.run();
+			});
+			this.atdb = db;
+			LogUtil.info(String.format("[TranscriptMapper] Loaded '%s' shard in %d ms",
+					languageId, System.currentTimeMillis() - startTime));
+			future.complete(db);
+		} catch (IOException | RuntimeException e) {
+			loadFuture.compareAndSet(future, null);
+			future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Write a new snapshot of the shard if it has been modified.
+	 *
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	public long save() throws IOException {
+		synchronized (saveLock) {
+			if(!isLoaded() || !isModified()) return 0L;
+			this.modified = false;
+			try {
+				return SnapshotWriter.writeSnapshot(this.atdb, dbFile, backupFile);
+			} catch (IOException e) {
+				this.modified = true;
+				throw e;
+			}
+		}
+	}
+
+}
@@ -17,9 +17,8 @@ package ca.phon.transcriptMapper;
 import ca.phon.app.hooks.PhonStartupHook;
 import ca.phon.app.log.LogUtil;
 import ca.phon.plugin.*;
-import ca.phon.worker.PhonWorker;
 
-import java.io.IOException;
+import java.util.concurrent.CompletionException;
 
 public final class UserATDBStartupHook implements PhonStartupHook, IPluginExtensionPoint<PhonStartupHook> {
 
@@ -27,14 +26,13 @@ public final class UserATDBStartupHook implements PhonStartupHook, IPluginExtens
 	public void startup() throws PluginException {
 		final UserATDB userATDB = UserATDB.getInstance();
 		LogUtil.info("[TranscriptMapper] Loading user aligned types database");
-		PhonWorker.invokeOnNewWorker(() -> {
-			try {
-				userATDB.loadATDB();
-			} catch (IOException e) {
-				LogUtil.warning("[TranscriptMapper] " + e.getLocalizedMessage(), e);
+		userATDB.getATDBAsync().whenComplete((db, e) -> {
+			if(e != null) {
+				final Throwable cause = (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+				LogUtil.warning("[TranscriptMapper] " + cause.getLocalizedMessage(), cause);
+			} else {
+				LogUtil.info("[TranscriptMapper] Finished loading user aligned types database");
 			}
-		}, () -> {
-			LogUtil.info("[TranscriptMapper] Finished loading user aligned types database");
 		});
 	}
 